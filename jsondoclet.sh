@@ -8,6 +8,16 @@ if [ -z $3 ]; then
     echo "                      -sourcepath <sourcepath>"
     echo "                      -subpackages <package> -subpackages <package>..." 
     echo "                      <package> ..." 
+    echo "                      [-compact]             (one JSON object per line)"
+    echo "                      [-prune]               (omit null/empty values)"
+    echo "                      [-gzip]                (parallel multi-member gzip output)"
+    echo "                      [-gzipIndex <file>]    (write the gzip block index)"
+    echo "                      [-outputDir <dir>]     (one file per package, plus manifest.json)"
+    echo "                      [-refs]                (write each stub once; refer to it by \$ref)"
+    echo "                      [-stubCacheSize <n>]   (max cached stubs; default 10000, 0 disables)"
+    echo "                      [-stats]               (write cache statistics to stderr)"
+    echo "                      [-threads <n>]         (JSON encoding threads; default: #cpus)"
+    echo "                      [-incrementalDir <dir>] (reuse docs of classes whose source is unchanged)"
     exit 1
 fi
 
@@ -16,10 +26,12 @@ dp=target/classes
 for x in `find target/dependency`; do dp="$dp;$x"; done
 
 # Notes: 
-# 1. JSON output is written to STDOUT.
+# 1. JSON output is written to STDOUT (or to one file per package, with -outputDir).
 # 2. Each class/interface/package/method/etc has its own JSON object
 # 3. The JSON output is NOT in array notation - it's just a series of JSON objects
 #    (i.e. the objects are *not* encapsulated in [], nor are they delimited by ',')
+# 4. With -compact, each JSON object is written on its own line with no indentation
+#    whitespace (newline-delimited JSON), so consumers can simply split on newlines.
 javadoc \
         -doclet com.rga78.javadoc.JsonDoclet \
         -docletpath "$dp" \
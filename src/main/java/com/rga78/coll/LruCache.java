@@ -0,0 +1,120 @@
+package com.rga78.coll;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache that evicts the least-recently-used entry once it's full.
+ *
+ * Keeps hit/miss/eviction counters, for tuning the size.
+ *
+ * Not thread-safe.
+ */
+public class LruCache<K, V> {
+
+    /**
+     * The max number of entries.
+     */
+    private final int maxSize;
+
+    /**
+     * The entries, in access order.
+     */
+    private final LinkedHashMap<K, V> map;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long evictions = 0;
+
+    /**
+     * CTOR.
+     *
+     * @param maxSize - the max number of entries
+     */
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    ++evictions;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value for the given key, or null.
+     */
+    public V get(K key) {
+        V retMe = map.get(key);
+        if (retMe != null) {
+            ++hits;
+        } else {
+            ++misses;
+        }
+        return retMe;
+    }
+
+    /**
+     * Cache the given value, evicting the least-recently-used entry if the cache is full.
+     *
+     * @return the given value
+     */
+    public V put(K key, V value) {
+        map.put(key, value);
+        return value;
+    }
+
+    /**
+     * Remove all entries.  The counters are kept.
+     */
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the max number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return e.g. "size=100/1000, hits=530, misses=100, evictions=0"
+     */
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maxSize
+                + ", hits=" + hits
+                + ", misses=" + misses
+                + ", evictions=" + evictions;
+    }
+
+}
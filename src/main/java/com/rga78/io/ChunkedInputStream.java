@@ -0,0 +1,87 @@
+package com.rga78.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a byte stream written by ChunkedOutputStream.  Returns EOF at the
+ * terminating chunk, leaving the underlying stream positioned just after it.
+ *
+ * The underlying stream is NOT closed by close().
+ */
+public class ChunkedInputStream extends InputStream {
+
+    /**
+     * The underlying stream.
+     */
+    private DataInputStream in;
+
+    /**
+     * Bytes left in the current chunk.
+     */
+    private int remaining = 0;
+
+    private boolean finished = false;
+
+    /**
+     * CTOR.
+     */
+    public ChunkedInputStream(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Read the next chunk's length, if the current chunk is used up.
+     *
+     * @return false at the terminating chunk.
+     */
+    protected boolean nextChunk() throws IOException {
+        if (remaining == 0 && !finished) {
+            remaining = in.readInt();
+            if (remaining < 0) {
+                throw new IOException("Invalid chunk length: " + remaining);
+            }
+            finished = (remaining == 0);
+        }
+        return !finished;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of stream in chunk");
+        }
+        --remaining;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = in.read(b, off, Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected end of stream in chunk");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * Does NOT close the underlying stream.
+     */
+    @Override
+    public void close() {
+    }
+
+}
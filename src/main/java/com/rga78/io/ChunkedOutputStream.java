@@ -0,0 +1,115 @@
+package com.rga78.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frames a byte stream as a sequence of length-prefixed chunks, so that more data
+ * can follow it on the same underlying stream (e.g. a socket).
+ *
+ *      [int length][length bytes] ... [int 0]
+ *
+ * Data is buffered and written as a chunk when the buffer fills up or on flush().
+ * close() (or finish()) writes the terminating 0-length chunk.  The underlying
+ * stream is NOT closed.
+ *
+ * Read it back with ChunkedInputStream.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    /**
+     * Default chunk (buffer) size.
+     */
+    public static final int DefaultChunkSize = 64 * 1024;
+
+    /**
+     * The underlying stream.
+     */
+    private DataOutputStream out;
+
+    /**
+     * The current chunk.
+     */
+    private byte[] buffer;
+
+    private int count = 0;
+
+    private boolean finished = false;
+
+    /**
+     * CTOR.
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        this(out, DefaultChunkSize);
+    }
+
+    /**
+     * CTOR.
+     */
+    public ChunkedOutputStream(OutputStream out, int chunkSize) {
+        this.out = new DataOutputStream(out);
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write the current chunk (if any) to the underlying stream.
+     */
+    protected void writeChunk() throws IOException {
+        if (count > 0) {
+            out.writeInt(count);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    /**
+     * Write the remaining data and the terminating chunk.  The underlying stream
+     * is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeChunk();
+            out.writeInt(0);
+            out.flush();
+            finished = true;
+        }
+    }
+
+    /**
+     * Same as finish().  The underlying stream is NOT closed.
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+}
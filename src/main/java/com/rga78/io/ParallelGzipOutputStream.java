@@ -0,0 +1,357 @@
+package com.rga78.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip OutputStream that compresses blocks of data in parallel (a la pigz).
+ *
+ * The data is split into blocks.  Each block is compressed on a worker thread
+ * into an independent gzip member.  The members are written to the underlying
+ * stream in order.  A multi-member gzip stream is still a valid gzip stream, so
+ * any standard gunzip (or java.util.zip.GZIPInputStream) can read it.
+ *
+ * Optionally a block index is written, one line per member:
+ *
+ *      {"member":0,"offset":0,"length":1234,"uncompressedOffset":0,"uncompressedLength":1048576}
+ *
+ * where offset/length locate the compressed member within the gzip stream.  A reader
+ * can seek to the offset and gunzip just that member.
+ *
+ * If the writer calls endRecord() after each record (e.g. each JSON document),
+ * blocks are only cut at record boundaries, so every member contains whole records.
+ *
+ * Note: this class is not thread-safe.  It's meant to be written by a single thread.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    /**
+     * Default uncompressed block size.
+     */
+    public static final int DefaultBlockSize = 1024 * 1024;
+
+    /**
+     * The compression pool shared by all streams that use it (see getSharedExecutorService).
+     */
+    private static ExecutorService sharedExecutorService;
+
+    /**
+     * The underlying stream.
+     */
+    private OutputStream out;
+
+    /**
+     * For compressing blocks.
+     */
+    private ExecutorService executorService;
+
+    /**
+     * True if we created the executorService (and therefore must shut it down).
+     */
+    private boolean ownsExecutorService;
+
+    /**
+     * The uncompressed block size.
+     */
+    private int blockSize;
+
+    /**
+     * If true, blocks are cut only at record boundaries (see endRecord).
+     */
+    private boolean recordAligned = false;
+
+    /**
+     * Max number of blocks buffered/compressing at once.  Bounds memory usage.
+     */
+    private int maxPendingBlocks;
+
+    /**
+     * The block currently being filled.
+     */
+    private ByteArrayOutputStream block;
+
+    /**
+     * Blocks submitted for compression, in order.
+     */
+    private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+    /**
+     * The uncompressed lengths of the pendingBlocks (for the block index).
+     */
+    private LinkedList<Integer> pendingBlockLengths = new LinkedList<Integer>();
+
+    /**
+     * The block index is written here, if set.
+     */
+    private Writer indexWriter;
+
+    /**
+     * Number of members written so far.
+     */
+    private long memberCount = 0;
+
+    /**
+     * Compressed bytes written so far.
+     */
+    private long compressedOffset = 0;
+
+    /**
+     * Uncompressed bytes written so far.
+     */
+    private long uncompressedOffset = 0;
+
+    /**
+     * True once finish() has been called.
+     */
+    private boolean finished = false;
+
+    /**
+     * CTOR.  Compresses on a new thread pool with one thread per processor.
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, newDaemonThreadPool( Runtime.getRuntime().availableProcessors() ), DefaultBlockSize);
+        this.ownsExecutorService = true;
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param out - the underlying stream
+     * @param executorService - for compressing blocks.  Not shut down by this stream.
+     * @param blockSize - the uncompressed size of each block
+     */
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService executorService, int blockSize) {
+        this.out = out;
+        this.executorService = executorService;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = 2 * Runtime.getRuntime().availableProcessors();
+        this.block = new ByteArrayOutputStream(blockSize);
+    }
+
+    /**
+     * @return the shared compression pool: a fixed pool of daemon threads, one per processor.
+     *         Created lazily, and never shut down.  For writers that open many streams
+     *         (e.g. one per output shard), so they don't each start a pool.
+     */
+    public static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = newDaemonThreadPool( Runtime.getRuntime().availableProcessors() );
+        }
+        return sharedExecutorService;
+    }
+
+    /**
+     * @return a fixed pool of daemon threads.
+     */
+    public static ExecutorService newDaemonThreadPool(int threadCount) {
+        return Executors.newFixedThreadPool( Math.max(1, threadCount), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ParallelGzipOutputStream");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Write the block index to the given writer.  Must be set before any data is written.
+     * The writer is flushed (not closed) by finish().
+     *
+     * @return this
+     */
+    public ParallelGzipOutputStream setIndexWriter(Writer indexWriter) {
+        this.indexWriter = indexWriter;
+        return this;
+    }
+
+    /**
+     * Only cut blocks at record boundaries, i.e. when endRecord() is called.
+     *
+     * @return this
+     */
+    public ParallelGzipOutputStream setRecordAligned(boolean recordAligned) {
+        this.recordAligned = recordAligned;
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block.write(b);
+        if (!recordAligned && block.size() >= blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = (recordAligned) ? len : Math.min(len, blockSize - block.size());
+            block.write(b, off, n);
+            off += n;
+            len -= n;
+
+            if (!recordAligned && block.size() >= blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Mark the end of a record.  If the current block is full, it is submitted
+     * for compression.  The caller must flush any buffering writer before calling this.
+     */
+    public void endRecord() throws IOException {
+        if (block.size() >= blockSize) {
+            submitBlock();
+        }
+    }
+
+    /**
+     * Flush all complete members to the underlying stream.  Note that the partially
+     * filled block is NOT compressed (that would produce tiny members); it's compressed
+     * when it fills up or when finish() is called.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeCompletedBlocks(false);
+        out.flush();
+    }
+
+    /**
+     * Compress the remaining data and write all members to the underlying stream,
+     * without closing it.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        // Always write at least one member, so that an empty stream is still valid gzip.
+        if (block.size() > 0 || memberCount + pendingBlocks.size() == 0) {
+            submitBlock();
+        }
+
+        writeCompletedBlocks(true);
+        out.flush();
+
+        if (indexWriter != null) {
+            indexWriter.flush();
+        }
+
+        if (ownsExecutorService) {
+            executorService.shutdown();
+        }
+
+        finished = true;
+    }
+
+    /**
+     * Finish, then close the underlying stream.  The underlying stream is closed (and 
+     * the executorService, if we created it, is shut down) even if finish fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            if (ownsExecutorService) {
+                executorService.shutdown();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * @return the number of gzip members written so far.
+     */
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    /**
+     * Submit the current block for compression, then write any completed blocks.
+     * If too many blocks are pending, wait for the oldest one.
+     */
+    protected void submitBlock() throws IOException {
+
+        final byte[] data = block.toByteArray();
+        block.reset();
+
+        pendingBlocks.add( executorService.submit( new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                return compress(data);
+            }
+        }));
+        pendingBlockLengths.add(data.length);
+
+        writeCompletedBlocks(false);
+
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    /**
+     * @return the given data compressed as a single gzip member.
+     */
+    protected byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( data.length / 4 + 64 );
+        GZIPOutputStream gzip = new GZIPOutputStream(bos, 64 * 1024);
+        gzip.write(data);
+        gzip.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Write the completed blocks at the head of the queue, in order.
+     *
+     * @param waitForAll - if true, wait for all pending blocks to complete.
+     */
+    protected void writeCompletedBlocks(boolean waitForAll) throws IOException {
+        while ( !pendingBlocks.isEmpty() && (waitForAll || pendingBlocks.getFirst().isDone()) ) {
+            writeNextBlock();
+        }
+    }
+
+    /**
+     * Wait for the block at the head of the queue, then write it.
+     */
+    protected void writeNextBlock() throws IOException {
+        byte[] member;
+        try {
+            member = pendingBlocks.removeFirst().get();
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        } catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+
+        int uncompressedLength = pendingBlockLengths.removeFirst();
+
+        out.write(member);
+
+        if (indexWriter != null) {
+            indexWriter.write( "{\"member\":" + memberCount
+                               + ",\"offset\":" + compressedOffset
+                               + ",\"length\":" + member.length
+                               + ",\"uncompressedOffset\":" + uncompressedOffset
+                               + ",\"uncompressedLength\":" + uncompressedLength
+                               + "}\n" );
+        }
+
+        memberCount++;
+        compressedOffset += member.length;
+        uncompressedOffset += uncompressedLength;
+    }
+
+}
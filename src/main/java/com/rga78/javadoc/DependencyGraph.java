@@ -0,0 +1,284 @@
+package com.rga78.javadoc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.rga78.json.JSONWriter;
+
+/**
+ * The reverse-dependency graph for IncrementalStore: for each class, the classes whose
+ * documents were built from it.  There are two kinds of dependents:
+ *
+ *      subtypes    classes that extend or implement the class.  A class's documents
+ *                  include content inherited from all its ancestors (allSuperclassTypes,
+ *                  allInterfaceTypes, allInheritedMethods, specifiedByMethod, inherited
+ *                  comments and tags), so subtypes are followed transitively.
+ *
+ *      referrers   classes whose documents include a stub of the class or one of its
+ *                  members (e.g. a superclass, parameter or annotation).  A stub is
+ *                  built from its own class's source only, so referrers are only
+ *                  affected by a change to the class itself, not to its ancestors.
+ *
+ * Each class's source file and source hash are recorded too, so changed classes can be
+ * found without the javadoc model (a dependency may not be part of the current run).
+ *
+ * The graph is persisted as:
+ *
+ *      {
+ *       "graphVersion": 1,
+ *       "nodes": {
+ *        "com.foo.Base": {
+ *         "sourceFile": "src/com/foo/Base.java",
+ *         "sourceHash": "3f2a...",
+ *         "subtypes": ["com.foo.Bar"],
+ *         "referrers": ["com.foo.Baz"]
+ *        },
+ *        ...
+ *       }
+ *      }
+ */
+public class DependencyGraph {
+
+    public static final int GraphVersion = 1;
+
+    /**
+     * A class in the graph.
+     */
+    public static class Node {
+
+        /**
+         * The class's source file and its hash, or null if unknown (e.g. a binary class).
+         */
+        String sourceFile;
+
+        String sourceHash;
+
+        /**
+         * Dependents.  Sorted, so the persisted graph is stable.
+         */
+        Set<String> subtypes = new TreeSet<String>();
+
+        Set<String> referrers = new TreeSet<String>();
+
+        /**
+         * @return the source file, or null.
+         */
+        public String getSourceFile() {
+            return sourceFile;
+        }
+
+        /**
+         * @return the source hash, or null.
+         */
+        public String getSourceHash() {
+            return sourceHash;
+        }
+
+        /**
+         * @return this
+         */
+        public Node setSource(String sourceFile, String sourceHash) {
+            this.sourceFile = sourceFile;
+            this.sourceHash = sourceHash;
+            return this;
+        }
+    }
+
+    /**
+     * The nodes, by qualified class name.
+     */
+    private Map<String, Node> nodes = new TreeMap<String, Node>();
+
+    /**
+     * @return the graph persisted in the given file, or an empty graph if the file
+     *         doesn't exist or is from a different graph version.
+     */
+    public static DependencyGraph read(File file) throws IOException {
+
+        DependencyGraph retMe = new DependencyGraph();
+
+        if (!file.exists()) {
+            return retMe;
+        }
+
+        BufferedReader reader = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 );
+        try {
+            Map graph = (Map) new JSONParser().parse(reader);
+
+            if (!Long.valueOf(GraphVersion).equals( graph.get("graphVersion") )) {
+                return retMe;
+            }
+
+            for (Object entryObj : ((Map) graph.get("nodes")).entrySet()) {
+                Map.Entry entry = (Map.Entry) entryObj;
+                Map nodeJson = (Map) entry.getValue();
+
+                Node node = retMe.getNode( (String) entry.getKey() )
+                                 .setSource( (String) nodeJson.get("sourceFile"), (String) nodeJson.get("sourceHash") );
+                node.subtypes.addAll( (List<String>) nodeJson.get("subtypes") );
+                node.referrers.addAll( (List<String>) nodeJson.get("referrers") );
+            }
+
+            return retMe;
+
+        } catch (ParseException pe) {
+            throw new IOException("Could not parse dependency graph " + file, pe);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Write the graph to the given file.  It's written to a temp file first, then moved
+     * into place, so an interrupted run never leaves a partial graph.
+     */
+    public void write(File file) throws IOException {
+
+        Map<String, Object> nodesJson = new LinkedHashMap<String, Object>();
+
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+
+            Map<String, Object> nodeJson = new LinkedHashMap<String, Object>();
+            nodeJson.put("sourceFile", node.sourceFile);
+            nodeJson.put("sourceHash", node.sourceHash);
+            nodeJson.put("subtypes", new ArrayList<String>(node.subtypes));
+            nodeJson.put("referrers", new ArrayList<String>(node.referrers));
+
+            nodesJson.put(entry.getKey(), nodeJson);
+        }
+
+        Map<String, Object> graph = new LinkedHashMap<String, Object>();
+        graph.put("graphVersion", GraphVersion);
+        graph.put("nodes", nodesJson);
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        Writer writer = new BufferedWriter( new OutputStreamWriter( Files.newOutputStream( tmpFile.toPath() ), StandardCharsets.UTF_8 ) );
+        try {
+            new JSONWriter(writer).write(graph);
+        } finally {
+            writer.close();
+        }
+
+        Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * @return the node for the given class, added if it's not already in the graph.
+     */
+    public Node getNode(String qualifiedName) {
+        Node retMe = nodes.get(qualifiedName);
+        if (retMe == null) {
+            retMe = new Node();
+            nodes.put(qualifiedName, retMe);
+        }
+        return retMe;
+    }
+
+    /**
+     * @return the nodes, by qualified class name.
+     */
+    public Map<String, Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Remove the given class from the graph, along with its dependents lists.
+     * The class is not removed from the dependents lists of other classes (see
+     * removeSubtypes and removeReferrers).
+     */
+    public void removeNode(String qualifiedName) {
+        nodes.remove(qualifiedName);
+    }
+
+    /**
+     * Record that the given dependent class extends/implements the given supertype.
+     */
+    public void addSubtype(String supertype, String dependent) {
+        getNode(supertype).subtypes.add(dependent);
+    }
+
+    /**
+     * Record that the given dependent class's documents include stubs from the given class.
+     */
+    public void addReferrer(String referenced, String dependent) {
+        getNode(referenced).referrers.add(dependent);
+    }
+
+    /**
+     * Remove the given classes from every subtypes list, e.g. before recording the
+     * supertypes of classes that were just (re-)processed.  One pass over the graph.
+     */
+    public void removeSubtypes(Collection<String> subtypes) {
+        for (Node node : nodes.values()) {
+            node.subtypes.removeAll(subtypes);
+        }
+    }
+
+    /**
+     * Remove the given classes from every referrers list (see removeSubtypes).
+     */
+    public void removeReferrers(Collection<String> referrers) {
+        for (Node node : nodes.values()) {
+            node.referrers.removeAll(referrers);
+        }
+    }
+
+    /**
+     * @return the classes whose documents depend on any of the given changed classes:
+     *         all their subtypes, transitively, plus the referrers of the changed classes
+     *         themselves.  The changed classes are not included (unless they depend on
+     *         each other).
+     */
+    public Set<String> getDependents(Collection<String> changed) {
+
+        Set<String> retMe = new TreeSet<String>();
+
+        List<String> queue = new ArrayList<String>(changed);
+
+        for (String qualifiedName : changed) {
+            Node node = nodes.get(qualifiedName);
+            if (node != null) {
+                retMe.addAll( node.referrers );
+            }
+        }
+
+        // Subtypes inherit from all their ancestors, so follow them all the way down.
+        Set<String> visited = new TreeSet<String>(changed);
+        while (!queue.isEmpty()) {
+            Node node = nodes.get( queue.remove(queue.size() - 1) );
+            if (node == null) {
+                continue;
+            }
+
+            for (String subtype : node.subtypes) {
+                retMe.add(subtype);
+                if (visited.add(subtype)) {
+                    queue.add(subtype);
+                }
+            }
+        }
+
+        return retMe;
+    }
+
+}
@@ -0,0 +1,356 @@
+package com.rga78.javadoc;
+
+import com.sun.javadoc.DocErrorReporter;
+
+/**
+ * Custom command-line options recognized by JsonDoclet.
+ *
+ * Javadoc asks the doclet (via JsonDoclet.optionLength) which options it
+ * understands, then passes them along to the doclet in RootDoc.options(),
+ * mixed in with the standard javadoc options.
+ *
+ * Options:
+ *
+ * -compact     Write each JSON object on a single line, with no indentation
+ *              whitespace (i.e. newline-delimited JSON).
+ *
+ * -prune       Omit null values, empty arrays and empty objects from the output.
+ *
+ * -gzip        Gzip the output.  Blocks are compressed in parallel into independent
+ *              gzip members (see ParallelGzipOutputStream).
+ *
+ * -gzipIndex <file>
+ *              Write the gzip block index to the given file.  Requires -gzip.
+ *
+ * -outputDir <dir>
+ *              Write each package to its own file in the given directory, along
+ *              with a manifest (see ShardedDocumentSink), instead of to stdout.
+ *
+ * -refs        Write each distinct stub (class, method, field, package, type...) just
+ *              once, as a symbol document, and refer to it by id everywhere else
+ *              (see SymbolTable).  With -outputDir, each shard has its own symbols.
+ *
+ * -stubCacheSize <n>
+ *              The max number of stubs to cache (default 10000).  0 disables the cache.
+ *
+ * -stats       Write cache statistics to stderr when the doclet is done.
+ *
+ * -threads <n> The number of threads used to encode the JSON output (default: the
+ *              number of processors).  The output is the same regardless.
+ *
+ * -incrementalDir <dir>
+ *              Keep each class's documents in the given directory, along with a hash
+ *              of its source file.  Classes whose source (and whose dependencies' 
+ *              source) hasn't changed since the last run are served from there instead
+ *              of being re-processed (see IncrementalStore).  Cannot be used with -refs.
+ *
+ */
+public class DocletOptions {
+
+    public static final String Compact = "-compact";
+
+    public static final String Prune = "-prune";
+
+    public static final String Gzip = "-gzip";
+
+    public static final String GzipIndex = "-gzipIndex";
+
+    public static final String OutputDir = "-outputDir";
+
+    public static final String Refs = "-refs";
+
+    public static final String StubCacheSize = "-stubCacheSize";
+
+    public static final String Stats = "-stats";
+
+    public static final int DefaultStubCacheSize = 10000;
+
+    public static final String Threads = "-threads";
+
+    public static final String IncrementalDir = "-incrementalDir";
+
+    /**
+     * Write each object on a single line.
+     */
+    private boolean compact = false;
+
+    /**
+     * Omit null/empty values.
+     */
+    private boolean prune = false;
+
+    /**
+     * Gzip the output.
+     */
+    private boolean gzip = false;
+
+    /**
+     * The gzip block index file.
+     */
+    private String gzipIndex;
+
+    /**
+     * The output dir for per-package shards.
+     */
+    private String outputDir;
+
+    /**
+     * Replace stubs with references to a symbol table.
+     */
+    private boolean refs = false;
+
+    /**
+     * The max number of stubs to cache.
+     */
+    private int stubCacheSize = DefaultStubCacheSize;
+
+    /**
+     * Write statistics to stderr.
+     */
+    private boolean stats = false;
+
+    /**
+     * The number of encoding threads.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The incremental store dir.
+     */
+    private String incrementalDir;
+
+    /**
+     * @return the number of command-line tokens taken by the given option
+     *         (including the option itself), or 0 if it's not one of ours.
+     */
+    public static int optionLength(String option) {
+        if (option.equals(Compact) || option.equals(Prune) || option.equals(Gzip) || option.equals(Refs) || option.equals(Stats)) {
+            return 1;
+        } else if (option.equals(GzipIndex) || option.equals(OutputDir) || option.equals(StubCacheSize) || option.equals(Threads) || option.equals(IncrementalDir)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Validate our options.  Errors are reported via the given reporter.
+     *
+     * @return true if the options are valid.
+     */
+    public static boolean validOptions(String[][] options, DocErrorReporter reporter) {
+        DocletOptions docletOptions;
+
+        try {
+            docletOptions = new DocletOptions(options);
+        } catch (NumberFormatException nfe) {
+            reporter.printError(StubCacheSize + " and " + Threads + " require a number: " + nfe.getMessage());
+            return false;
+        }
+
+        if (docletOptions.getGzipIndex() != null && !docletOptions.isGzip()) {
+            reporter.printError(GzipIndex + " requires " + Gzip);
+            return false;
+        }
+
+        if (docletOptions.getGzipIndex() != null && docletOptions.getOutputDir() != null) {
+            reporter.printError(GzipIndex + " cannot be used with " + OutputDir + " (each shard's index is written to <shard-file>.idx)");
+            return false;
+        }
+
+        if (docletOptions.getIncrementalDir() != null && docletOptions.isRefs()) {
+            reporter.printError(IncrementalDir + " cannot be used with " + Refs + " (stored documents can't refer to another run's symbols)");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * CTOR. All options set to their defaults.
+     */
+    public DocletOptions() {
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param options - the options array from RootDoc.options().  Options that
+     *                  aren't ours are ignored.
+     */
+    public DocletOptions(String[][] options) {
+        for (String[] option : options) {
+            if (option[0].equals(Compact)) {
+                compact = true;
+            } else if (option[0].equals(Prune)) {
+                prune = true;
+            } else if (option[0].equals(Gzip)) {
+                gzip = true;
+            } else if (option[0].equals(GzipIndex)) {
+                gzipIndex = option[1];
+            } else if (option[0].equals(OutputDir)) {
+                outputDir = option[1];
+            } else if (option[0].equals(Refs)) {
+                refs = true;
+            } else if (option[0].equals(StubCacheSize)) {
+                stubCacheSize = Integer.parseInt(option[1]);
+            } else if (option[0].equals(Stats)) {
+                stats = true;
+            } else if (option[0].equals(Threads)) {
+                threads = Integer.parseInt(option[1]);
+            } else if (option[0].equals(IncrementalDir)) {
+                incrementalDir = option[1];
+            }
+        }
+    }
+
+    /**
+     * @return true if JSON objects should be written one per line.
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setCompact(boolean compact) {
+        this.compact = compact;
+        return this;
+    }
+
+    /**
+     * @return true if null values, empty arrays and empty objects should be omitted.
+     */
+    public boolean isPrune() {
+        return prune;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setPrune(boolean prune) {
+        this.prune = prune;
+        return this;
+    }
+
+    /**
+     * @return true if the output should be gzipped.
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * @return the gzip block index file name, or null.
+     */
+    public String getGzipIndex() {
+        return gzipIndex;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setGzipIndex(String gzipIndex) {
+        this.gzipIndex = gzipIndex;
+        return this;
+    }
+
+    /**
+     * @return the output dir for per-package shards, or null to write to stdout.
+     */
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setOutputDir(String outputDir) {
+        this.outputDir = outputDir;
+        return this;
+    }
+
+    /**
+     * @return true if stubs should be replaced with references to a symbol table.
+     */
+    public boolean isRefs() {
+        return refs;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setRefs(boolean refs) {
+        this.refs = refs;
+        return this;
+    }
+
+    /**
+     * @return the max number of stubs to cache.  0 means don't cache.
+     */
+    public int getStubCacheSize() {
+        return stubCacheSize;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setStubCacheSize(int stubCacheSize) {
+        this.stubCacheSize = stubCacheSize;
+        return this;
+    }
+
+    /**
+     * @return true if statistics should be written to stderr.
+     */
+    public boolean isStats() {
+        return stats;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setStats(boolean stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * @return the number of threads used to encode the JSON output.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @return the incremental store dir, or null.
+     */
+    public String getIncrementalDir() {
+        return incrementalDir;
+    }
+
+    /**
+     * @return this
+     */
+    public DocletOptions setIncrementalDir(String incrementalDir) {
+        this.incrementalDir = incrementalDir;
+        return this;
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.rga78.javadoc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Receives the javadoc models (JSON objects) produced by JsonDoclet.
+ *
+ * The doclet processes one package at a time.  For each package it calls
+ * startPackage, then write for each class/member model in the package (followed
+ * by the package model itself), then endPackage.  close is called at the end of
+ * the run.
+ */
+public interface DocumentSink extends Closeable {
+
+    /**
+     * Called before the documents for the given package are written.
+     */
+    public void startPackage(String packageName) throws IOException;
+
+    /**
+     * Write the given document.
+     */
+    public void write(Map doc) throws IOException;
+
+    /**
+     * Called after all documents for the given package have been written.
+     */
+    public void endPackage(String packageName) throws IOException;
+
+}
@@ -0,0 +1,250 @@
+package com.rga78.javadoc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.rga78.io.ParallelGzipOutputStream;
+import com.rga78.json.JSONWriter;
+
+/**
+ * Writes javadoc models (JSON objects) to an OutputStream, one after another,
+ * each followed by a newline.
+ *
+ * The output format is controlled by the DocletOptions (-compact, -prune, -gzip).
+ * The JSON (and the gzip block index) is always UTF-8.
+ *
+ * Package boundaries are ignored; everything goes to the one stream.
+ *
+ * If an encodeExecutor is given, documents are encoded to JSON text on the executor's
+ * threads, several at a time, and written in the order they were given.  The number of 
+ * documents in flight is bounded, so the doclet can't get too far ahead of the writer.
+ * The documents must not be modified after they're passed to write().
+ */
+public class DocumentWriter implements DocumentSink {
+
+    /**
+     * The underlying stream.  Not closed by this guy.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * Non-null if the output is gzipped.
+     */
+    private ParallelGzipOutputStream gzipOutputStream;
+
+    /**
+     * The gzip block index, if requested.
+     */
+    private Writer gzipIndexWriter;
+
+    /**
+     * Buffered writer on top of outputStream (or gzipOutputStream).
+     */
+    private Writer writer;
+
+    /**
+     * Serializes the models to the writer.
+     */
+    private JSONWriter jsonWriter;
+
+    /**
+     * Number of documents written.
+     */
+    private long documentCount = 0;
+
+    /**
+     * Encodes documents in parallel.  Null to encode on the calling thread.
+     * Not shut down by this guy.
+     */
+    private ExecutorService encodeExecutor;
+
+    /**
+     * Documents submitted to the encodeExecutor but not yet written, in order.
+     */
+    private Deque<Future<String>> pendingDocuments = new ArrayDeque<Future<String>>();
+
+    /**
+     * The max number of pendingDocuments.
+     */
+    private int maxPendingDocuments;
+
+    /**
+     * The output options.
+     */
+    private DocletOptions options;
+
+    /**
+     * CTOR.
+     *
+     * @param outputStream - the output stream.  Not closed by close().
+     * @param options - the output options
+     * @param gzipIndexFile - the gzip block index file, or null for no index.
+     */
+    public DocumentWriter(OutputStream outputStream, DocletOptions options, File gzipIndexFile) throws IOException {
+        this(outputStream, options, gzipIndexFile, null);
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param outputStream - the output stream.  Not closed by close().
+     * @param options - the output options
+     * @param gzipIndexFile - the gzip block index file, or null for no index.
+     * @param encodeExecutor - for encoding documents in parallel, or null.  Not shut down by close().
+     */
+    public DocumentWriter(OutputStream outputStream, 
+                          DocletOptions options, 
+                          File gzipIndexFile, 
+                          ExecutorService encodeExecutor) throws IOException {
+        this.outputStream = outputStream;
+        this.options = options;
+        this.encodeExecutor = encodeExecutor;
+        this.maxPendingDocuments = 4 * Math.max(1, options.getThreads());
+
+        OutputStream out = outputStream;
+
+        if (options.isGzip()) {
+            // One compression pool for all writers, rather than one per shard.
+            gzipOutputStream = new ParallelGzipOutputStream( outputStream, 
+                                                             ParallelGzipOutputStream.getSharedExecutorService(), 
+                                                             ParallelGzipOutputStream.DefaultBlockSize ).setRecordAligned(true);
+
+            if (gzipIndexFile != null) {
+                gzipIndexWriter = new BufferedWriter( new OutputStreamWriter( new FileOutputStream(gzipIndexFile), StandardCharsets.UTF_8 ) );
+                gzipOutputStream.setIndexWriter(gzipIndexWriter);
+            }
+
+            out = gzipOutputStream;
+        }
+
+        writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+        jsonWriter = newJSONWriter( writer );
+    }
+
+    /**
+     * @return a JSONWriter for the given writer, configured according to the options.
+     */
+    protected JSONWriter newJSONWriter(Writer writer) {
+        return new JSONWriter( writer ).setCompact( options.isCompact() )
+                                       .setPruneEmpty( options.isPrune() );
+    }
+
+    /**
+     * No-op.
+     */
+    @Override
+    public void startPackage(String packageName) {
+    }
+
+    /**
+     * Write the given model, followed by a newline.
+     * In compact mode this yields exactly one object per line.
+     */
+    @Override
+    public void write(final Map doc) throws IOException {
+
+        if (encodeExecutor == null) {
+            jsonWriter.write( doc ).writeRaw( "\n" );
+            endDocument();
+            return;
+        }
+
+        pendingDocuments.add( encodeExecutor.submit( new Callable<String>() {
+            public String call() throws IOException {
+                return encode(doc);
+            }
+        }));
+
+        while (pendingDocuments.size() > maxPendingDocuments) {
+            writePendingDocument();
+        }
+    }
+
+    /**
+     * @return the JSON text for the given doc, followed by a newline.
+     */
+    protected String encode(Map doc) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        newJSONWriter( stringWriter ).write( doc ).writeRaw( "\n" );
+        return stringWriter.toString();
+    }
+
+    /**
+     * Wait for the oldest pending document to be encoded, then write it.
+     */
+    protected void writePendingDocument() throws IOException {
+        try {
+            writer.write( pendingDocuments.removeFirst().get() );
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        } catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+        endDocument();
+    }
+
+    /**
+     * Called after each document is written.
+     */
+    protected void endDocument() throws IOException {
+        documentCount++;
+
+        if (gzipOutputStream != null) {
+            // Let the gzip stream cut its blocks at document boundaries.
+            writer.flush();
+            gzipOutputStream.endRecord();
+        }
+    }
+
+    /**
+     * No-op.
+     */
+    @Override
+    public void endPackage(String packageName) {
+    }
+
+    /**
+     * @return the number of documents written.
+     */
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * Flush all output (finishing the gzip stream, if any) without closing the
+     * underlying OutputStream.
+     */
+    @Override
+    public void close() throws IOException {
+        while (!pendingDocuments.isEmpty()) {
+            writePendingDocument();
+        }
+
+        writer.flush();
+
+        if (gzipOutputStream != null) {
+            gzipOutputStream.finish();
+        }
+
+        if (gzipIndexWriter != null) {
+            gzipIndexWriter.close();
+        }
+
+        outputStream.flush();
+    }
+
+}
@@ -0,0 +1,474 @@
+package com.rga78.javadoc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.rga78.json.JSONWriter;
+import com.sun.javadoc.ClassDoc;
+
+/**
+ * Stores each class's documents (as emitted by JsonDoclet.processClass), along with a
+ * hash of the class's source file, so a later run can reuse them if the source hasn't
+ * changed (see the doclet's -incrementalDir option).
+ *
+ * Each class is stored in its own file:
+ *
+ *      <dir>/classes/<qualifiedName>.json
+ *
+ * The first line is a header, followed by one (compact) JSON document per line:
+ *
+ *      {"storeVersion":1,"qualifiedName":"com.foo.Bar","sourceFile":"...","sourceHash":"3f2a..."}
+ *      {"metaType":"class","qualifiedName":"com.foo.Bar",...}
+ *      {"metaType":"method","qualifiedName":"com.foo.Bar.baz",...}
+ *      ...
+ *
+ * The documents are stored as built, before -prune or -compact are applied by the
+ * DocumentSink, so the same store can be used regardless of the output options.
+ *
+ * A class's documents also depend on other classes: its ancestors (for inherited 
+ * content) and every class it has a stub of.  Those dependencies are kept in a 
+ * DependencyGraph, in <dir>/dependency-graph.json.  When the store is opened, the 
+ * source hash of every class in the graph is checked, and the stored documents of the 
+ * dependents of any changed (or deleted) class are discarded, so they're re-processed.
+ *
+ * At the end of the run (see close), a run manifest is written to <dir>/run-manifest.json:
+ *
+ *      {"reused": 120, "regenerated": 3, "invalidated": 2, "elapsedMillis": 842}
+ *
+ * "invalidated" is the number of stored classes that were discarded because a class 
+ * they depend on changed.
+ */
+public class IncrementalStore {
+
+    public static final int StoreVersion = 1;
+
+    public static final String ClassesDirName = "classes";
+
+    public static final String RunManifestFileName = "run-manifest.json";
+
+    public static final String DependencyGraphFileName = "dependency-graph.json";
+
+    /**
+     * The store dir.
+     */
+    private File dir;
+
+    /**
+     * <dir>/classes.
+     */
+    private File classesDir;
+
+    /**
+     * Source file hashes, by path.  Several classes may share a source file.
+     */
+    private Map<String, String> sourceHashes = new HashMap<String, String>();
+
+    /**
+     * The reverse-dependency graph.
+     */
+    private DependencyGraph dependencyGraph;
+
+    /**
+     * The supertypes of each class processed this run (and of their ancestors), and the
+     * referenced classes of each class processed this run.  They replace the classes'
+     * previous dependencies in the dependencyGraph when the store is closed.
+     */
+    private Map<String, List<String>> newSupertypes = new HashMap<String, List<String>>();
+
+    private Map<String, Set<String>> newReferences = new HashMap<String, Set<String>>();
+
+    /**
+     * Counts.
+     */
+    private int reusedCount = 0;
+
+    private int regeneratedCount = 0;
+
+    private int invalidatedCount = 0;
+
+    /**
+     * For the run manifest.
+     */
+    private long startMillis = System.currentTimeMillis();
+
+    /**
+     * CTOR.
+     */
+    public IncrementalStore(File dir) throws IOException {
+        this.dir = dir;
+        this.classesDir = new File(dir, ClassesDirName);
+        FileUtils.forceMkdir(classesDir);
+
+        this.dependencyGraph = DependencyGraph.read( new File(dir, DependencyGraphFileName) );
+        invalidateDependents();
+    }
+
+    /**
+     * Find the classes in the dependencyGraph whose source has changed (or been deleted)
+     * since the last run, and discard the stored documents of their dependents.  The 
+     * changed classes' own entries are rejected by load, since their source hash won't
+     * match.
+     */
+    protected void invalidateDependents() throws IOException {
+
+        List<String> changed = new ArrayList<String>();
+        List<String> deleted = new ArrayList<String>();
+
+        for (Map.Entry<String, DependencyGraph.Node> entry : dependencyGraph.getNodes().entrySet()) {
+
+            DependencyGraph.Node node = entry.getValue();
+            if (node.getSourceFile() == null) {
+                continue;
+            }
+
+            File sourceFile = new File(node.getSourceFile());
+            String sourceHash = (sourceFile.exists()) ? getSourceHash(sourceFile) : null;
+
+            if (sourceHash == null) {
+                changed.add( entry.getKey() );
+                deleted.add( entry.getKey() );
+                getStoreFile( entry.getKey() ).delete();
+            } else if (!sourceHash.equals( node.getSourceHash() )) {
+                changed.add( entry.getKey() );
+                node.setSource( node.getSourceFile(), sourceHash );
+            }
+        }
+
+        for (String dependent : dependencyGraph.getDependents(changed)) {
+            if (getStoreFile(dependent).delete()) {
+                ++invalidatedCount;
+            }
+        }
+
+        // The dependents lists of deleted classes are no longer needed.
+        for (String qualifiedName : deleted) {
+            dependencyGraph.removeNode(qualifiedName);
+        }
+    }
+
+    /**
+     * @return the stored documents for the given class, or null if the class isn't
+     *         stored, or its source file has changed since it was stored.
+     */
+    public JSONArray load(ClassDoc classDoc) throws IOException {
+
+        File sourceFile = getSourceFile(classDoc);
+        File storeFile = getStoreFile(classDoc);
+
+        if (sourceFile == null || !storeFile.exists()) {
+            return null;
+        }
+
+        BufferedReader reader = Files.newBufferedReader( storeFile.toPath(), StandardCharsets.UTF_8 );
+        try {
+            JSONParser jsonParser = new JSONParser();
+
+            String headerLine = reader.readLine();
+
+            if (headerLine == null || !isCurrent( (Map) jsonParser.parse(headerLine), sourceFile )) {
+                return null;
+            }
+
+            JSONArray retMe = new JSONArray();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                retMe.add( jsonParser.parse(line) );
+            }
+
+            ++reusedCount;
+            return retMe;
+
+        } catch (ParseException pe) {
+            // Unreadable; regenerate it.
+            // Note: no logging here, since the doclet's stdout is the JSON output.
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true if the given store header is for the current store version and
+     *         source file content.
+     */
+    protected boolean isCurrent(Map header, File sourceFile) throws IOException {
+        return header != null
+                && Long.valueOf(StoreVersion).equals( header.get("storeVersion") )
+                && sourceFile.getPath().equals( header.get("sourceFile") )
+                && getSourceHash(sourceFile).equals( header.get("sourceHash") );
+    }
+
+    /**
+     * Store the given documents for the given class, and record its dependencies: its 
+     * supertypes, and the given referenced classes (the classes whose stubs appear in 
+     * the docs).  Classes without a source file (e.g. no position info) are not stored.
+     */
+    public void save(ClassDoc classDoc, List docs, Collection<ClassDoc> referencedClassDocs) throws IOException {
+
+        ++regeneratedCount;
+
+        File sourceFile = getSourceFile(classDoc);
+        if (sourceFile == null) {
+            return;
+        }
+
+        recordDependencies(classDoc, referencedClassDocs);
+
+        Map<String, Object> header = new LinkedHashMap<String, Object>();
+        header.put("storeVersion", StoreVersion);
+        header.put("qualifiedName", classDoc.qualifiedName());
+        header.put("sourceFile", sourceFile.getPath());
+        header.put("sourceHash", getSourceHash(sourceFile));
+
+        File storeFile = getStoreFile(classDoc);
+        File tmpFile = new File(classesDir, storeFile.getName() + ".tmp");
+
+        Writer writer = new BufferedWriter( new OutputStreamWriter( Files.newOutputStream( tmpFile.toPath() ), StandardCharsets.UTF_8 ) );
+        try {
+            JSONWriter jsonWriter = new JSONWriter(writer).setCompact(true);
+
+            jsonWriter.write(header).writeRaw("\n");
+            for (Object doc : docs) {
+                jsonWriter.write(doc).writeRaw("\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        Files.move( tmpFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * @return the number of classes served from the store this run.
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * @return the number of classes (re-)processed this run.
+     */
+    public int getRegeneratedCount() {
+        return regeneratedCount;
+    }
+
+    /**
+     * @return the number of stored classes discarded because a class they depend on changed.
+     */
+    public int getInvalidatedCount() {
+        return invalidatedCount;
+    }
+
+    /**
+     * Record the dependencies of the given class (see save).  The class and its
+     * dependencies are added to the graph along with their current source hashes.
+     */
+    protected void recordDependencies(ClassDoc classDoc, Collection<ClassDoc> referencedClassDocs) throws IOException {
+
+        recordSupertypes(classDoc, true);
+
+        // Classes without a source file never change, as far as the store can tell.
+        Set<String> references = new TreeSet<String>();
+        for (ClassDoc referencedClassDoc : referencedClassDocs) {
+            if (referencedClassDoc != classDoc && getSourceFile(referencedClassDoc) != null) {
+                recordNode(referencedClassDoc);
+                references.add( referencedClassDoc.qualifiedName() );
+            }
+        }
+
+        newReferences.put( classDoc.qualifiedName(), references );
+    }
+
+    /**
+     * Record the supertypes of the given class and, recursively, of its ancestors.
+     * The ancestors may not be part of this run (or may be binary classes), but the 
+     * class inherits from all of them, so the whole chain is needed for the subtypes
+     * of a changed ancestor to reach the class.
+     *
+     * @param replace - if false, and the class's supertypes were already recorded this run, do nothing.
+     */
+    protected void recordSupertypes(ClassDoc classDoc, boolean replace) throws IOException {
+
+        if (!replace && newSupertypes.containsKey( classDoc.qualifiedName() )) {
+            return;
+        }
+
+        recordNode(classDoc);
+
+        List<String> supertypes = new ArrayList<String>();
+        newSupertypes.put( classDoc.qualifiedName(), supertypes );
+
+        for (ClassDoc supertype : getSupertypes(classDoc)) {
+            supertypes.add( supertype.qualifiedName() );
+            recordSupertypes(supertype, false);
+        }
+    }
+
+    /**
+     * Add the given class to the graph, with its current source file and hash (if any).
+     */
+    protected void recordNode(ClassDoc classDoc) throws IOException {
+
+        DependencyGraph.Node node = dependencyGraph.getNode( classDoc.qualifiedName() );
+
+        File sourceFile = getSourceFile(classDoc);
+        if (sourceFile != null) {
+            node.setSource( sourceFile.getPath(), getSourceHash(sourceFile) );
+        }
+    }
+
+    /**
+     * @return the given class's superclass (if any) and interfaces.
+     */
+    protected List<ClassDoc> getSupertypes(ClassDoc classDoc) {
+        List<ClassDoc> retMe = new ArrayList<ClassDoc>();
+        if (classDoc.superclass() != null) {
+            retMe.add( classDoc.superclass() );
+        }
+        retMe.addAll( Arrays.asList( classDoc.interfaces() ) );
+        return retMe;
+    }
+
+    /**
+     * Replace the dependencies of the classes processed this run in the dependency graph,
+     * write the graph, and write the run manifest.
+     *
+     * @return the run manifest.
+     */
+    public Map<String, Object> close() throws IOException {
+        writeDependencyGraph();
+        return writeRunManifest();
+    }
+
+    /**
+     * Replace the dependencies of the classes processed this run and write the graph
+     * to <dir>/dependency-graph.json.
+     */
+    protected void writeDependencyGraph() throws IOException {
+
+        dependencyGraph.removeSubtypes( newSupertypes.keySet() );
+        dependencyGraph.removeReferrers( newReferences.keySet() );
+
+        for (Map.Entry<String, List<String>> entry : newSupertypes.entrySet()) {
+            for (String supertype : entry.getValue()) {
+                dependencyGraph.addSubtype( supertype, entry.getKey() );
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> entry : newReferences.entrySet()) {
+            for (String referenced : entry.getValue()) {
+                dependencyGraph.addReferrer( referenced, entry.getKey() );
+            }
+        }
+
+        dependencyGraph.write( new File(dir, DependencyGraphFileName) );
+    }
+
+    /**
+     * Write the run manifest to <dir>/run-manifest.json.
+     *
+     * @return the run manifest.
+     */
+    protected Map<String, Object> writeRunManifest() throws IOException {
+
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        manifest.put("reused", reusedCount);
+        manifest.put("regenerated", regeneratedCount);
+        manifest.put("invalidated", invalidatedCount);
+        manifest.put("elapsedMillis", System.currentTimeMillis() - startMillis);
+
+        Writer writer = new BufferedWriter( new OutputStreamWriter( Files.newOutputStream( new File(dir, RunManifestFileName).toPath() ), StandardCharsets.UTF_8 ) );
+        try {
+            new JSONWriter(writer).write(manifest);
+        } finally {
+            writer.close();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * @return the given class's source file, or null if not known.  Classes loaded from
+     *         class files have a position, but its file is just the class's simple name
+     *         (e.g. "Serializable.java"), so it's only used if it exists.
+     */
+    protected File getSourceFile(ClassDoc classDoc) {
+        File retMe = (classDoc.position() != null) ? classDoc.position().file() : null;
+        return (retMe != null && retMe.isFile()) ? retMe : null;
+    }
+
+    /**
+     * @return the store file for the given class.
+     */
+    protected File getStoreFile(ClassDoc classDoc) {
+        return getStoreFile( classDoc.qualifiedName() );
+    }
+
+    /**
+     * @return the store file for the given class.
+     */
+    protected File getStoreFile(String qualifiedName) {
+        return new File(classesDir, qualifiedName + ".json");
+    }
+
+    /**
+     * @return the SHA-1 of the given source file's content, as a hex string.
+     *         Cached for the duration of the run.
+     */
+    protected String getSourceHash(File sourceFile) throws IOException {
+
+        String retMe = sourceHashes.get( sourceFile.getPath() );
+
+        if (retMe == null) {
+            retMe = toHex( newMessageDigest().digest( Files.readAllBytes( sourceFile.toPath() ) ) );
+            sourceHashes.put( sourceFile.getPath(), retMe );
+        }
+
+        return retMe;
+    }
+
+    /**
+     * @return a new SHA-1 MessageDigest
+     */
+    protected MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);  // every JRE is required to support SHA-1
+        }
+    }
+
+    /**
+     * @return the given bytes as a hex string.
+     */
+    protected static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append( Character.forDigit((b >> 4) & 0xf, 16) ).append( Character.forDigit(b & 0xf, 16) );
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.rga78.javadoc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The inherited documentation for a single MethodDoc (comment text, @return text,
+ * @param tags and comments, @throws tags and comments), resolved up the method's
+ * overriddenMethod chain.
+ *
+ * Each piece is resolved lazily, the first time it's asked for, and remembered.
+ * Resolving a piece for a method uses the (already resolved) piece for the method
+ * it overrides, so an override chain is walked only once no matter how many
+ * subclasses override the same method.
+ *
+ * Note: the pieces don't include doc inherited from the "specified by" interface
+ * method.  That's applied on top by JsonDoclet, since it depends on the class the
+ * method is processed in.
+ *
+ * Values are keyed by piece, e.g. "commentText", "@return", "@param:name".
+ * A resolved value may be null (nothing to inherit).
+ */
+public class InheritedDoc {
+
+    public static final String CommentText = "commentText";
+
+    public static final String ReturnTagText = "@return";
+
+    /**
+     * The resolved pieces.
+     */
+    private Map<String, Object> resolved = new HashMap<String, Object>();
+
+    /**
+     * @return the key for the @param comment for the given parameter
+     */
+    public static String paramTagCommentKey(String parameterName) {
+        return "@param:" + parameterName;
+    }
+
+    /**
+     * @return the key for the ParamTag for the given parameter
+     */
+    public static String paramTagKey(String parameterName) {
+        return "ParamTag:" + parameterName;
+    }
+
+    /**
+     * @return the key for the @throws comment for the given exception
+     */
+    public static String throwsTagCommentKey(String exceptionName) {
+        return "@throws:" + exceptionName;
+    }
+
+    /**
+     * @return the key for the ThrowsTag for the given exception
+     */
+    public static String throwsTagKey(String exceptionName) {
+        return "ThrowsTag:" + exceptionName;
+    }
+
+    /**
+     * @return true if the given piece has been resolved.
+     */
+    public boolean isResolved(String key) {
+        return resolved.containsKey(key);
+    }
+
+    /**
+     * @return the given resolved piece (null if it's unresolved or there's nothing to inherit).
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        return (T) resolved.get(key);
+    }
+
+    /**
+     * Remember the given resolved piece.
+     *
+     * @return value
+     */
+    public <T> T put(String key, T value) {
+        resolved.put(key, value);
+        return value;
+    }
+
+}
@@ -0,0 +1,550 @@
+package com.rga78.javadoc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.rga78.io.ChunkedInputStream;
+import com.rga78.io.ChunkedOutputStream;
+import com.rga78.log.Log;
+
+/**
+ * A long-lived javadoc server.  Keeps a warm JVM (with JsonDoclet loaded and JIT'ed)
+ * and runs javadoc jobs in-process (see SimpleJavadocProcess.runInProcess), instead
+ * of cold-starting a javadoc JVM for every run.
+ *
+ * The daemon listens on a local (loopback) TCP port.  Each connection is one job:
+ *
+ *      request:  a single line of JSON (see SimpleJavadocProcess.buildJobRequest)
+ *                {"token":"9f1c...","sourcePath":"/src","packages":[...],"subpackages":[...],"docletOptions":[...],"quiet":true}
+ *
+ *      response: the doclet's output, framed as chunks (see ChunkedOutputStream),
+ *                followed by a single line of JSON with the job status:
+ *                {"metaType":"jobStatus","exitCode":0,"queuedMillis":3,"elapsedMillis":850}
+ *
+ * A job reads and writes files as the daemon's user, and any local user can connect 
+ * to a loopback port, so every request must carry the daemon's token (see getToken).
+ * A request with a missing or wrong token is rejected with an error status.  main 
+ * writes the token to a file only its owner can read (see getTokenFile).
+ *
+ * If -outputDir is one of the docletOptions, the output goes there and the chunked
+ * stream is empty.
+ *
+ * The request is read and its token checked before the job takes a job slot, so idle
+ * or unauthenticated connections can't hold up real jobs.  The request line must 
+ * arrive within requestTimeoutMillis and be at most maxRequestBytes long, or the 
+ * connection is rejected with an error status.
+ *
+ * At most maxConcurrentJobs jobs run at once; the rest wait their turn.
+ *
+ *      java -cp ... com.rga78.javadoc.JavadocDaemon <port> [<maxConcurrentJobs>]
+ *
+ * Use SimpleJavadocProcess.runOnDaemon (or JavadocDaemon.submit) as the client.
+ */
+public class JavadocDaemon implements Closeable {
+
+    public static final String JobStatusMetaType = "jobStatus";
+
+    /**
+     * Length of a generated token, in bytes.
+     */
+    protected static final int TokenBytes = 32;
+
+    /**
+     * Default time allowed for the request line to arrive.
+     */
+    public static final int DefaultRequestTimeoutMillis = 10 * 1000;
+
+    /**
+     * Default max length of the request line, in bytes.
+     */
+    public static final int DefaultMaxRequestBytes = 1024 * 1024;
+
+    /**
+     * The port to listen on.  0 for any free port (see getPort).
+     */
+    private int port;
+
+    private int maxConcurrentJobs;
+
+    /**
+     * The shared secret that every job request must carry.
+     */
+    private String token;
+
+    private int requestTimeoutMillis = DefaultRequestTimeoutMillis;
+
+    private int maxRequestBytes = DefaultMaxRequestBytes;
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Reads and checks the job requests (unbounded; each read is bounded by the
+     * requestTimeoutMillis instead).
+     */
+    private ExecutorService requestExecutor;
+
+    /**
+     * Runs the jobs.
+     */
+    private ExecutorService jobExecutor;
+
+    /**
+     * Stats.
+     */
+    private AtomicLong jobCount = new AtomicLong();
+
+    private AtomicLong totalElapsedMillis = new AtomicLong();
+
+    /**
+     * CTOR.  The token is generated (see getToken).
+     */
+    public JavadocDaemon(int port, int maxConcurrentJobs) {
+        this(port, maxConcurrentJobs, generateToken());
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param token - the shared secret that every job request must carry.
+     */
+    public JavadocDaemon(int port, int maxConcurrentJobs, String token) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("JavadocDaemon token must not be empty");
+        }
+        this.port = port;
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        this.token = token;
+    }
+
+    /**
+     * @return a random token, as hex.
+     */
+    public static String generateToken() {
+        byte[] bytes = new byte[TokenBytes];
+        new SecureRandom().nextBytes(bytes);
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append( String.format("%02x", b & 0xff) );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param requestTimeoutMillis - the time allowed for the request line to arrive.
+     *
+     * @return this
+     */
+    public JavadocDaemon setRequestTimeoutMillis(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param maxRequestBytes - the max length of the request line, in bytes.
+     *
+     * @return this
+     */
+    public JavadocDaemon setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+        return this;
+    }
+
+    /**
+     * Bind the port and start accepting jobs (on a background thread).
+     *
+     * @return this
+     */
+    public JavadocDaemon start() throws IOException {
+
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        requestExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JavadocDaemon-request");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        jobExecutor = Executors.newFixedThreadPool(maxConcurrentJobs, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JavadocDaemon-job");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Thread acceptThread = new Thread( new Runnable() {
+            public void run() {
+                acceptJobs();
+            }
+        }, "JavadocDaemon-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        Log.info(this, "start: listening on port " + getPort() + ", maxConcurrentJobs=" + maxConcurrentJobs);
+
+        return this;
+    }
+
+    /**
+     * @return the port the daemon is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the token that clients must send with each job request.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the number of jobs run so far.
+     */
+    public long getJobCount() {
+        return jobCount.get();
+    }
+
+    /**
+     * @return the total run time of all jobs so far.
+     */
+    public long getTotalElapsedMillis() {
+        return totalElapsedMillis.get();
+    }
+
+    /**
+     * Accept connections until the daemon is closed.
+     */
+    protected void acceptJobs() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final long acceptedMillis = System.currentTimeMillis();
+
+                requestExecutor.submit( new Runnable() {
+                    public void run() {
+                        acceptJob(socket, acceptedMillis);
+                    }
+                });
+
+            } catch (SocketException se) {
+                // Closed.
+            } catch (RejectedExecutionException ree) {
+                // Closed.
+            } catch (IOException ioe) {
+                Log.error(this, "acceptJobs: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Read and check the job request from the socket.  If it's valid, queue the job;
+     * otherwise write an error status and close the socket.
+     */
+    protected void acceptJob(final Socket socket, final long acceptedMillis) {
+
+        final Map request;
+        try {
+            request = readJobRequest(socket);
+        } catch (Exception e) {
+            Log.error(this, "acceptJob: rejected: " + e);
+            rejectJob(socket, e);
+            return;
+        }
+
+        try {
+            jobExecutor.submit( new Runnable() {
+                public void run() {
+                    runJob(socket, request, acceptedMillis);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            rejectJob(socket, ree);
+        }
+    }
+
+    /**
+     * @return the job request read from the socket, within the requestTimeoutMillis.
+     *
+     * @throws IllegalArgumentException if it's not a JSON object or has the wrong token.
+     * @throws IOException if it's too long, or didn't arrive in time.
+     */
+    protected Map readJobRequest(Socket socket) throws IOException, ParseException {
+
+        socket.setSoTimeout(requestTimeoutMillis);
+
+        Map request = parseJobRequest( readLine(socket.getInputStream(), maxRequestBytes) );
+
+        // The job itself takes as long as it takes.
+        socket.setSoTimeout(0);
+
+        return request;
+    }
+
+    /**
+     * Write an empty output and an error status for the given rejected request, and 
+     * close the socket.
+     */
+    protected void rejectJob(Socket socket, Exception e) {
+
+        JSONObject status = new JSONObject();
+        status.put("metaType", JobStatusMetaType);
+        status.put("exitCode", -1);
+        status.put("error", e.toString());
+
+        try {
+            OutputStream out = socket.getOutputStream();
+            new ChunkedOutputStream(out).finish();
+            writeStatus(out, status);
+
+        } catch (IOException ioe) {
+            Log.error(this, "rejectJob: " + ioe);
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Run the given (checked) job request and write the output and job status.
+     */
+    protected void runJob(Socket socket, Map request, long acceptedMillis) {
+
+        long startMillis = System.currentTimeMillis();
+
+        JSONObject status = new JSONObject();
+        status.put("metaType", JobStatusMetaType);
+        status.put("queuedMillis", startMillis - acceptedMillis);
+
+        try {
+            OutputStream out = socket.getOutputStream();
+
+            ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(out);
+
+            try {
+                status.put("exitCode", SimpleJavadocProcess.fromJobRequest(request).runInProcess(chunkedOutputStream) );
+            } catch (Exception e) {
+                Log.error(this, "runJob: ", e);
+                status.put("exitCode", -1);
+                status.put("error", e.toString());
+            }
+
+            chunkedOutputStream.finish();
+
+            long elapsedMillis = System.currentTimeMillis() - startMillis;
+            status.put("elapsedMillis", elapsedMillis);
+
+            jobCount.incrementAndGet();
+            totalElapsedMillis.addAndGet(elapsedMillis);
+
+            Log.info(this, "runJob: " + request.get("sourcePath") + ": " + status);
+
+            writeStatus(out, status);
+
+        } catch (IOException ioe) {
+            Log.error(this, "runJob: " + ioe);
+        } finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Write the given job status as a single line of JSON.
+     */
+    protected void writeStatus(OutputStream out, JSONObject status) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        writer.write( status.toJSONString() + "\n" );
+        writer.flush();
+    }
+
+    /**
+     * @return the job request in the given line, if it's a JSON object with the right token.
+     *
+     * @throws IllegalArgumentException if it's not a JSON object or has the wrong token.
+     */
+    protected Map parseJobRequest(String line) throws ParseException {
+
+        Object request = new JSONParser().parse(line);
+
+        if (!(request instanceof Map)) {
+            throw new IllegalArgumentException("Invalid job request: not a JSON object");
+        }
+
+        Object requestToken = ((Map) request).get("token");
+
+        // Constant-time comparison, so the token can't be guessed byte by byte.
+        if (!(requestToken instanceof String) 
+                || !MessageDigest.isEqual( token.getBytes(StandardCharsets.UTF_8), ((String) requestToken).getBytes(StandardCharsets.UTF_8) )) {
+            throw new IllegalArgumentException("Invalid job request: missing or wrong token");
+        }
+
+        return (Map) request;
+    }
+
+    /**
+     * @return a single UTF-8 line from the given stream, read a byte at a time so as not 
+     *         to read past it.
+     */
+    protected static String readLine(InputStream in) throws IOException {
+        return readLine(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return a single UTF-8 line from the given stream, read a byte at a time so as not 
+     *         to read past it.
+     *
+     * @throws IOException if the line is longer than maxBytes (not counting the '\n').
+     */
+    protected static String readLine(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream");
+            } else if (bos.size() >= maxBytes) {
+                throw new IOException("Line longer than " + maxBytes + " bytes");
+            }
+            bos.write(b);
+        }
+        return bos.toString("UTF-8");
+    }
+
+    /**
+     * Stop accepting jobs.  Running jobs are left to finish.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        requestExecutor.shutdown();
+        jobExecutor.shutdown();
+    }
+
+    /**
+     * @return the file main writes the token to, for the daemon on the given port:
+     *         ~/.javadoc-daemon-<port>.token
+     */
+    public static File getTokenFile(int port) {
+        return new File( System.getProperty("user.home"), ".javadoc-daemon-" + port + ".token" );
+    }
+
+    /**
+     * Write the token to the given file, readable and writable only by its owner (on
+     * file systems that support POSIX permissions).  Any existing file is replaced.
+     */
+    public static void writeTokenFile(File tokenFile, String token) throws IOException {
+
+        Path path = tokenFile.toPath();
+        Files.deleteIfExists(path);
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile( path, PosixFilePermissions.asFileAttribute( EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE) ) );
+        }
+
+        Files.write( path, token.getBytes(StandardCharsets.UTF_8) );
+    }
+
+    /**
+     * @return the token in the given file (see writeTokenFile).
+     */
+    public static String readTokenFile(File tokenFile) throws IOException {
+        return new String( Files.readAllBytes( tokenFile.toPath() ), StandardCharsets.UTF_8 ).trim();
+    }
+
+    /**
+     * Client side: submit the given job request to the daemon listening on the given 
+     * local port and copy the job's output to the given stream.
+     *
+     * @param token - the daemon's token (see getToken), added to the request.
+     *
+     * @return the job status
+     */
+    public static Map submit(int port, String token, Map request, OutputStream outputStream) throws IOException {
+
+        JSONObject tokenRequest = new JSONObject();
+        tokenRequest.put("token", token);
+        tokenRequest.putAll(request);
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            writer.write( tokenRequest.toJSONString() + "\n" );
+            writer.flush();
+
+            InputStream in = socket.getInputStream();
+
+            IOUtils.copy( new ChunkedInputStream(in), outputStream );
+            outputStream.flush();
+
+            String statusLine = new BufferedReader( new InputStreamReader(in, "UTF-8") ).readLine();
+            if (statusLine == null) {
+                throw new IOException("No job status from daemon");
+            }
+            return (Map) new JSONParser().parse( statusLine );
+
+        } catch (ParseException pe) {
+            throw new IOException("Invalid job status from daemon", pe);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Run the daemon until killed.  The token is written to getTokenFile(port), and
+     * deleted on exit.
+     *
+     * @param args - <port> [<maxConcurrentJobs>]
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1) {
+            System.err.println("usage: JavadocDaemon <port> [<maxConcurrentJobs>]");
+            System.exit(1);
+        }
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon( Integer.parseInt(args[0]), 
+                                                         (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() )
+                                            .start();
+
+        File tokenFile = getTokenFile( javadocDaemon.getPort() );
+        writeTokenFile( tokenFile, javadocDaemon.getToken() );
+        tokenFile.deleteOnExit();
+
+        Log.info(javadocDaemon, "main: token written to " + tokenFile);
+
+        Thread.currentThread().join();
+    }
+
+}
@@ -1,21 +1,31 @@
 
 package com.rga78.javadoc;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import com.rga78.coll.Cawls;
+import com.rga78.coll.LruCache;
 import com.rga78.coll.MapBuilder;
-import com.rga78.json.JSONTrace;
+import com.rga78.json.SharedJSONObject;
 import com.sun.javadoc.AnnotationDesc;
 import com.sun.javadoc.AnnotationTypeDoc;
 import com.sun.javadoc.AnnotationTypeElementDoc;
@@ -23,6 +33,7 @@ import com.sun.javadoc.AnnotationValue;
 import com.sun.javadoc.ClassDoc;
 import com.sun.javadoc.ConstructorDoc;
 import com.sun.javadoc.Doc;
+import com.sun.javadoc.DocErrorReporter;
 import com.sun.javadoc.ExecutableMemberDoc;
 import com.sun.javadoc.FieldDoc;
 import com.sun.javadoc.LanguageVersion;
@@ -91,7 +102,25 @@ public class JsonDoclet {
      * doc metadata.
      */
     public static boolean start(RootDoc root) {
-        return new JsonDoclet(root).go();
+        return new JsonDoclet(root, new DocletOptions(root.options())).go();
+    }
+
+    /**
+     * Javadoc calls this method for every command-line option it doesn't recognize.
+     *
+     * @return the number of tokens taken by the option (see DocletOptions), or 0 if unknown.
+     */
+    public static int optionLength(String option) {
+        return DocletOptions.optionLength(option);
+    }
+
+    /**
+     * Javadoc calls this method to validate the custom doclet options.
+     *
+     * @return true if the options are valid.
+     */
+    public static boolean validOptions(String[][] options, DocErrorReporter reporter) {
+        return DocletOptions.validOptions(options, reporter);
     }
 
     /**
@@ -103,46 +132,315 @@ public class JsonDoclet {
         return LanguageVersion.JAVA_1_5;
     }
 
+    /**
+     * The DocumentSink for in-process runs (see SimpleJavadocProcess.runInProcess).
+     * javadoc runs the doclet on the thread that calls it, so the sink is handed
+     * over via a ThreadLocal.
+     */
+    private static final ThreadLocal<DocumentSink> InProcessDocumentSink = new ThreadLocal<DocumentSink>();
+
+    /**
+     * The output stream for in-process runs that write the usual JSON output (see 
+     * SimpleJavadocProcess.runInProcess(OutputStream)).  Used in place of stdout.
+     */
+    private static final ThreadLocal<OutputStream> InProcessOutputStream = new ThreadLocal<OutputStream>();
+
+    /**
+     * Set the DocumentSink for doclets run on this thread.  The doclet writes its
+     * documents directly to the sink (no JSON encoding) and closes it at the end of
+     * the run.  Overrides the output options (-outputDir, -gzip, etc).
+     *
+     * @param documentSink - the sink, or null to clear it.
+     */
+    public static void setInProcessDocumentSink(DocumentSink documentSink) {
+        if (documentSink != null) {
+            InProcessDocumentSink.set(documentSink);
+        } else {
+            InProcessDocumentSink.remove();
+        }
+    }
+
+    /**
+     * Set the output stream, in place of stdout, for doclets run on this thread.  
+     * The stream is not closed by the doclet.
+     *
+     * @param outputStream - the stream, or null to clear it.
+     */
+    public static void setInProcessOutputStream(OutputStream outputStream) {
+        if (outputStream != null) {
+            InProcessOutputStream.set(outputStream);
+        } else {
+            InProcessOutputStream.remove();
+        }
+    }
+
     /**
      * The rootDoc, passed in to the custom doclet by the javadoc framework.
      */
     protected RootDoc rootDoc;
+
+    /**
+     * The custom doclet options.
+     */
+    protected DocletOptions options;
     
     /**
-     * Set of packages.  This gets populated as we process classDocs.  Then
-     * at the end we process all the packageDocs.
+     * The symbol table for the -refs output mode.  Null if not in -refs mode.
+     */
+    protected SymbolTable symbolTable;
+
+    /**
+     * Encodes the JSON output in parallel (see DocumentWriter).  The javadoc model
+     * (com.sun.javadoc) isn't thread-safe, so it's only ever accessed on the doclet 
+     * thread.  The doclet copies it into JSON objects, which are then handed off to 
+     * this guy for encoding.  Null if -threads is 1.
+     */
+    protected ExecutorService encodeExecutor;
+
+    /**
+     * Cache of processType results, keyed by getTypeKey.  The cached objects are 
+     * shared, so they're frozen (read-only).
+     */
+    private Map<String, SharedJSONObject> typeCache = new HashMap<String, SharedJSONObject>();
+
+    /**
+     * Memo of getTypeKey results, per Type instance.  ClassDocs (by far the most common
+     * types) are canonical, so their keys are only built once.  ParameterizedTypes etc
+     * may be new instances each time, but their type arguments' keys come from here.
+     * Weak, so those short-lived instances can still be collected.  (The javadoc Type
+     * implementations don't override equals, so this is effectively an identity map.)
+     */
+    private Map<Type, String> typeKeyCache = new WeakHashMap<Type, String>();
+
+    /**
+     * Cache of stubs, keyed by stub id (see lookupStub).  The same class, method or 
+     * field shows up as a stub in many places (superclass, interfaces, overriddenMethod,
+     * inherited methods of every subclass, ...).  Null if disabled.
+     */
+    protected LruCache<String, JSONObject> stubCache;
+
+    /**
+     * Caches for getAllUniqueSuperclassTypes and getAllUniqueInterfaceTypes, keyed 
+     * by the ClassDoc's qualified name.
+     */
+    private Map<String, List<Map>> allSuperclassTypesCache = new HashMap<String, List<Map>>();
+
+    private Map<String, List<Map>> allInterfaceTypesCache = new HashMap<String, List<Map>>();
+
+    /**
+     * Cache for getMethodIndex, keyed by the ClassDoc's qualified name.
+     */
+    private Map<String, MethodIndex> methodIndexCache = new HashMap<String, MethodIndex>();
+
+    /**
+     * Cache for getSpecifiedByIndex, keyed by the ClassDoc's qualified name.
+     */
+    private Map<String, MethodIndex> specifiedByIndexCache = new HashMap<String, MethodIndex>();
+
+    /**
+     * Memo of inherited doc, per MethodDoc (see getInheritedDoc).
      */
-    private Set<PackageDoc> packageDocs = new HashSet<PackageDoc>();
+    private Map<MethodDoc, InheritedDoc> inheritedDocCache = new HashMap<MethodDoc, InheritedDoc>();
+
+    /**
+     * The classes whose stubs were built (or fetched from the stubCache) while processing
+     * the current class, for the IncrementalStore's dependency graph (see recordReference).
+     * Null when not recording.
+     */
+    protected Set<ClassDoc> referencedClassDocs;
 
     /**
      * CTOR.
      */
     public JsonDoclet(RootDoc rootDoc) {
+        this(rootDoc, new DocletOptions());
+    }
+
+    /**
+     * CTOR.
+     */
+    public JsonDoclet(RootDoc rootDoc, DocletOptions options) {
         this.rootDoc = rootDoc;
+        this.options = options;
+        this.symbolTable = (options.isRefs()) ? new SymbolTable() : null;
+        this.stubCache = (options.getStubCacheSize() > 0) ? new LruCache<String, JSONObject>(options.getStubCacheSize()) : null;
     }
     
     
     /**
+     * Process all classes and packages and write their JSON to the DocumentSink
+     * (stdout, by default).
+     *
+     * The classes are processed one package at a time. Each package's classes
+     * (along with their members) are written first, followed by the package itself.
      * 
+     * @return true if successful
      */
     protected boolean go() {
 
-        // TODO: OPTIMIZATION: remove all null/empty entries from the map, to minimize storage use.
-        //       process Maps and Lists recursively.
-        
-        for (ClassDoc classDoc : rootDoc.classes()) {
-            for ( Object obj : processClass(classDoc)) {
-                System.out.println( JSONTrace.prettyPrint( (Map) obj ) );
+        try {
+            if (options.getThreads() > 1) {
+                encodeExecutor = new ForkJoinPool( options.getThreads() );
+            }
+
+            DocumentSink documentSink = buildDocumentSink();
+
+            IncrementalStore incrementalStore = (options.getIncrementalDir() != null) ? new IncrementalStore( new File(options.getIncrementalDir()) ) : null;
+
+            for (Map.Entry<PackageDoc, List<ClassDoc>> entry : groupByPackage( rootDoc.classes() ).entrySet()) {
+
+                String packageName = entry.getKey().name();
+                documentSink.startPackage( packageName );
+
+                if (symbolTable != null && options.getOutputDir() != null) {
+                    // Each shard gets its own symbols, so it can be loaded on its own.
+                    // Cached stubs hold refs to the last shard's symbols, so they go too;
+                    // they're re-created (and their refs re-defined) as they're needed.
+                    symbolTable.clear();
+                    if (stubCache != null) {
+                        stubCache.clear();
+                    }
+                }
+
+                for (ClassDoc classDoc : entry.getValue()) {
+                    writeDocuments( documentSink, (incrementalStore != null) ? processClass(classDoc, incrementalStore) : processClass(classDoc) );
+                }
+
+                writeDocuments( documentSink, processPackages( Arrays.asList( entry.getKey() ) ) );
+
+                documentSink.endPackage( packageName );
+            }
+
+            documentSink.close();
+
+            Map runManifest = (incrementalStore != null) ? incrementalStore.close() : null;
+
+            if (options.isStats()) {
+                printStats();
+                if (runManifest != null) {
+                    System.err.println("JsonDoclet: incremental: " + runManifest);
+                }
+            }
+
+        } catch (IOException ioe) {
+            rootDoc.printError( "JsonDoclet: failed to write JSON output: " + ioe );
+            return false;
+
+        } finally {
+            if (encodeExecutor != null) {
+                encodeExecutor.shutdown();
             }
-        }
-        
-        for ( Object obj : processPackages( getPackageDocs() )) {
-            System.out.println( JSONTrace.prettyPrint( (Map) obj ) );
         }
         
         return true;
     }
+
+    /**
+     * Write statistics to stderr (stdout is for the JSON output).
+     */
+    protected void printStats() {
+        System.err.println("JsonDoclet: stubCache: " + stubCache);
+        System.err.println("JsonDoclet: typeCache: size=" + typeCache.size());
+        if (symbolTable != null) {
+            System.err.println("JsonDoclet: symbolTable: size=" + symbolTable.size());
+        }
+    }
+
+    /**
+     * Write the given docs to the documentSink.  In -refs mode, any newly defined 
+     * symbols are written first.
+     */
+    protected void writeDocuments(DocumentSink documentSink, List docs) throws IOException {
+
+        if (symbolTable != null) {
+            for (Map symbol : symbolTable.takePendingSymbols()) {
+                documentSink.write( symbol );
+            }
+        }
+
+        for ( Object obj : docs ) {
+            documentSink.write( (Map) obj );
+        }
+    }
+
+    /**
+     * @return the given classDocs grouped by containing package, in order of appearance.
+     */
+    protected Map<PackageDoc, List<ClassDoc>> groupByPackage(ClassDoc[] classDocs) {
+        Map<PackageDoc, List<ClassDoc>> retMe = new LinkedHashMap<PackageDoc, List<ClassDoc>>();
+
+        for (ClassDoc classDoc : classDocs) {
+            List<ClassDoc> packageClassDocs = retMe.get( classDoc.containingPackage() );
+            if (packageClassDocs == null) {
+                packageClassDocs = new ArrayList<ClassDoc>();
+                retMe.put( classDoc.containingPackage(), packageClassDocs );
+            }
+            packageClassDocs.add( classDoc );
+        }
+
+        return retMe;
+    }
+
+    /**
+     * @return the DocumentSink, configured according to the doclet options:
+     *         a ShardedDocumentSink if -outputDir was specified; otherwise a
+     *         DocumentWriter for stdout (or the stream set via setInProcessOutputStream).
+     *         For in-process runs, the sink set via setInProcessDocumentSink.
+     */
+    protected DocumentSink buildDocumentSink() throws IOException {
+
+        if (InProcessDocumentSink.get() != null) {
+            return InProcessDocumentSink.get();
+        }
+
+        if (options.getOutputDir() != null) {
+            return new ShardedDocumentSink( new File(options.getOutputDir()), options, encodeExecutor );
+        }
+
+        return new DocumentWriter( (InProcessOutputStream.get() != null) ? InProcessOutputStream.get() : System.out, 
+                                   options, 
+                                   (options.getGzipIndex() != null) ? new File(options.getGzipIndex()) : null,
+                                   encodeExecutor );
+    }
     
+    /**
+     * Serve the given classDoc's documents from the incrementalStore if its source 
+     * hasn't changed; otherwise process it, recording the classes it refers to (see 
+     * recordReference), and store the result along with its dependencies.
+     * 
+     * @return a list of javadoc models.
+     */
+    protected List processClass(ClassDoc classDoc, IncrementalStore incrementalStore) throws IOException {
+
+        List retMe = incrementalStore.load(classDoc);
+
+        if (retMe == null) {
+            referencedClassDocs = new HashSet<ClassDoc>();
+            try {
+                retMe = processClass(classDoc);
+                incrementalStore.save(classDoc, retMe, referencedClassDocs);
+            } finally {
+                referencedClassDocs = null;
+            }
+        }
+
+        return retMe;
+    }
+
+    /**
+     * A stub of the given class or member is included in the current class's documents,
+     * so the current class depends on the class (or the member's containing class).
+     * Called before the stubCache lookup, so cached stubs are recorded too.
+     */
+    protected void recordReference(ProgramElementDoc peDoc) {
+        if (referencedClassDocs != null) {
+            ClassDoc classDoc = (peDoc instanceof ClassDoc) ? (ClassDoc) peDoc : peDoc.containingClass();
+            if (classDoc != null) {
+                referencedClassDocs.add(classDoc);
+            }
+        }
+    }
+
     /**
      * Process the given classDoc along with all its methods, constructors, fields, enumConstants, etc.
      * 
@@ -181,14 +479,6 @@ public class JsonDoclet {
 
     }
     
-    /**
-     * @return the set of packageDocs that were accumulated while processing the classDocs.
-     */
-    protected Set<PackageDoc> getPackageDocs() {
-        packageDocs.remove(null); // Remove null in case it was added
-        return packageDocs;
-    }
-
     /**
      * @return full JSON objects for the given ClassDoc[]
      */
@@ -244,27 +534,47 @@ public class JsonDoclet {
      * @return a JSON stub for the given ClassDoc.
      */
     protected JSONObject processClassDocStub(ClassDoc classDoc) {
-        return processProgramElementDocStub(classDoc);
+
+        if (classDoc == null) {
+            return null;
+        }
+
+        recordReference(classDoc);
+
+        String stubId = "class:" + classDoc.qualifiedName();
+        JSONObject retMe = lookupStub(stubId);
+
+        return (retMe != null) ? retMe : defineStub(stubId, processProgramElementDocStub(classDoc));
     }
     
     /**
      * @return the unique set of all superclass types extended by the given classDoc
-     *         (note: interfaces may extend more than one interface).
+     *         (note: interfaces may extend more than one interface), from most derived 
+     *         to oldest grand parent.
+     *
+     *         The list is computed once per ClassDoc, from the (already unique) lists
+     *         of its superclasses, and cached.  Removing duplicates from the tail of a
+     *         list doesn't change which element is first for each qualifiedTypeName,
+     *         so the result is the same as de-duping the fully expanded hierarchy.
      */
     protected List<Map> getAllUniqueSuperclassTypes(ClassDoc classDoc) {
-        return Cawls.uniqueForField( getAllSuperclassTypes(classDoc), "qualifiedTypeName" );
-    }
-    
-    /**
-     * @return a list of all superclass types, from most derived to oldest grand parent
-     */
-    protected JSONArray getAllSuperclassTypes(ClassDoc classDoc) {
-        
-        JSONArray retMe = new JSONArray();
-        
-        for (Type superclassType : getSuperclassTypes(classDoc)) {
-            retMe.add( processType( superclassType ) );
-            retMe.addAll( getAllSuperclassTypes( superclassType.asClassDoc() ) );
+
+        if (classDoc == null) {
+            return Collections.emptyList();
+        }
+
+        List<Map> retMe = allSuperclassTypesCache.get(classDoc.qualifiedName());
+
+        if (retMe == null) {
+            List<Map> allSuperclassTypes = new ArrayList<Map>();
+
+            for (Type superclassType : getSuperclassTypes(classDoc)) {
+                allSuperclassTypes.add( processType( superclassType ) );
+                allSuperclassTypes.addAll( getAllUniqueSuperclassTypes( superclassType.asClassDoc() ) );
+            }
+
+            retMe = Collections.unmodifiableList( Cawls.uniqueForField( allSuperclassTypes, "qualifiedTypeName" ) );
+            allSuperclassTypesCache.put(classDoc.qualifiedName(), retMe);
         }
         
         return retMe;
@@ -273,21 +583,25 @@ public class JsonDoclet {
     /**
      * @return the unique set of all interface types implemented by the given classDoc
      *         including interfaces implemented by superclasses.
+     *
+     *         Computed once per ClassDoc and cached (see getAllUniqueSuperclassTypes).
      */
     protected List<Map> getAllUniqueInterfaceTypes(ClassDoc classDoc) {
-        return Cawls.uniqueForField( getAllInterfaceTypes(classDoc), "qualifiedTypeName" );
-    }
-    
-    /**
-     * @return a list of all superclass types
-     */
-    protected JSONArray getAllInterfaceTypes(ClassDoc classDoc) {
-        
-        JSONArray retMe = new JSONArray();
-        
-        if (classDoc != null) {
-            retMe.addAll( processTypes( classDoc.interfaceTypes() ) );
-            retMe.addAll( getAllInterfaceTypes( classDoc.superclass() ) );
+
+        if (classDoc == null) {
+            return Collections.emptyList();
+        }
+
+        List<Map> retMe = allInterfaceTypesCache.get(classDoc.qualifiedName());
+
+        if (retMe == null) {
+            List<Map> allInterfaceTypes = new ArrayList<Map>();
+
+            allInterfaceTypes.addAll( processTypes( classDoc.interfaceTypes() ) );
+            allInterfaceTypes.addAll( getAllUniqueInterfaceTypes( classDoc.superclass() ) );
+
+            retMe = Collections.unmodifiableList( Cawls.uniqueForField( allInterfaceTypes, "qualifiedTypeName" ) );
+            allInterfaceTypesCache.put(classDoc.qualifiedName(), retMe);
         }
         
         return retMe;
@@ -334,7 +648,15 @@ public class JsonDoclet {
      * @return a JSON stub for the given PackageDoc.
      */
     protected JSONObject processPackageDocStub(PackageDoc packageDoc) {
-        return processDocStub(packageDoc);
+
+        if (packageDoc == null) {
+            return null;
+        }
+
+        String stubId = "package:" + packageDoc.name();
+        JSONObject retMe = lookupStub(stubId);
+
+        return (retMe != null) ? retMe : defineStub(stubId, processDocStub(packageDoc));
     }
 
     /**
@@ -370,7 +692,17 @@ public class JsonDoclet {
      * @return a JSON stub for the given ConstructorDoc
      */
     protected JSONObject processConstructorDocStub(ConstructorDoc constructorDoc) {
-        return processExecutableMemberDocStub(constructorDoc);
+
+        if (constructorDoc == null) {
+            return null;
+        }
+
+        recordReference(constructorDoc);
+
+        String stubId = "constructor:" + constructorDoc.qualifiedName() + constructorDoc.signature();
+        JSONObject retMe = lookupStub(stubId);
+
+        return (retMe != null) ? retMe : defineStub(stubId, processExecutableMemberDocStub(constructorDoc));
     }
     
     /**
@@ -399,51 +731,12 @@ public class JsonDoclet {
         }
     }
     
-//    /**
-//     * @return [ { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] },
-//     *           { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] } ]
-//     */
-//    protected JSONArray getAllInheritedMethods(ClassDoc classDoc) {
-//        JSONArray retMe = new JSONArray();
-//        
-//        // Keep track of methods we've already inherited so as not to 
-//        // inherit them again from another superclass.
-//        List<MethodDoc> alreadyInherited = new ArrayList<MethodDoc>();
-//        
-//        // TODO: use getSuperclassTypes to handle interfaces with more than 1 superclass.
-//        // for ( Type superclassType : getSuperclassTypes(classDoc) ) {
-//            
-//            for ( ClassDoc superclassDoc = getSuperclass(classDoc);
-//                    superclassDoc != null;
-//                    superclassDoc = getSuperclass(superclassDoc) ) {
-//
-//                List<MethodDoc> inheritedMethods = new ArrayList<MethodDoc>();
-//
-//                for (MethodDoc supermethodDoc : superclassDoc.methods()) {
-//                    if ( !isMethodOverridden( supermethodDoc, classDoc.methods(), alreadyInherited ) ) {
-//                        inheritedMethods.add( supermethodDoc );
-//                    }
-//                }
-//
-//                if (inheritedMethods.size() > 0) {
-//                    retMe.add( processInheritedMethods( superclassDoc, inheritedMethods ) );
-//
-//                    // Keep track of inheritedMethods so as not to inherit them again from
-//                    // another superclass.
-//                    alreadyInherited.addAll( inheritedMethods );
-//                }
-//            }
-//        // }
-//        
-//        return retMe;
-//    }
-    
     /**
      * @return [ { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] },
      *           { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] } ]
      */
     protected List<Map> getAllInheritedMethods(ClassDoc classDoc) {
-        return Cawls.uniqueForField( getAllInheritedMethodsHelper(classDoc, classDoc, new ArrayList<MethodDoc>()), "superclassType");
+        return Cawls.uniqueForField( getAllInheritedMethodsHelper(classDoc, classDoc, new MethodIndex()), "superclassType");
     }
     
     /**
@@ -455,13 +748,14 @@ public class JsonDoclet {
      *                         argument.
      * @param alreadyInherited - keeps track of methods we've already inherited so
      *                           as not to inherit them again from another superclass.
+     *                           Indexed, so override checks are hash lookups.
      *                           
      * @return [ { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] },
      *           { "superclassType": {}, "inheritedMethods": [ {}, {}, ... ] } ]
      */
     protected List<Map> getAllInheritedMethodsHelper(ClassDoc childClassDoc,
                                                      ClassDoc parentClassDoc, 
-                                                     List<MethodDoc> alreadyInherited) {
+                                                     MethodIndex alreadyInherited) {
         List<Map> retMe = new ArrayList<Map>();
         
         // use getSuperclassTypes to handle interfaces with more than 1 superclass.
@@ -475,7 +769,7 @@ public class JsonDoclet {
             List<MethodDoc> inheritedMethods = new ArrayList<MethodDoc>();
 
             for (MethodDoc supermethodDoc : superclassDoc.methods()) {
-                if ( !isMethodOverridden( supermethodDoc, childClassDoc.methods(), alreadyInherited ) ) {
+                if ( !isMethodOverridden( supermethodDoc, getMethodIndex(childClassDoc), alreadyInherited ) ) {
                     inheritedMethods.add( supermethodDoc );
                 }
             }
@@ -497,24 +791,26 @@ public class JsonDoclet {
     }
     
     /**
-     * @return true if the given supermethodDoc is overridden by one of the given methodDocs.
+     * @return true if the given supermethodDoc is overridden by one of the methods
+     *         in the given indexes.
      */
     protected boolean isMethodOverridden( MethodDoc supermethodDoc, 
-                                          MethodDoc[] methodDocs, 
-                                          List<MethodDoc> alreadyInherited) {
-        for (MethodDoc methodDoc : methodDocs) {
-            if (methodDoc.overrides(supermethodDoc)) {
-                return true;
-            }
-        }
-        
-        for (MethodDoc methodDoc : alreadyInherited) {
-            if (methodDoc.overrides(supermethodDoc)) {
-                return true;
-            }
+                                          MethodIndex methodIndex, 
+                                          MethodIndex alreadyInherited) {
+        return methodIndex.containsOverrideOf(supermethodDoc) || alreadyInherited.containsOverrideOf(supermethodDoc);
+    }
+
+    /**
+     * @return the index of the methods declared by the given classDoc.  Built once per
+     *         class and cached.
+     */
+    protected MethodIndex getMethodIndex(ClassDoc classDoc) {
+        MethodIndex retMe = methodIndexCache.get(classDoc.qualifiedName());
+        if (retMe == null) {
+            retMe = new MethodIndex().addAll( classDoc.methods() );
+            methodIndexCache.put(classDoc.qualifiedName(), retMe);
         }
-        
-        return false;
+        return retMe;
     }
     
     /**
@@ -586,11 +882,20 @@ public class JsonDoclet {
             return null;
         }
 
-        JSONObject retMe = processExecutableMemberDocStub(methodDoc);
+        recordReference(methodDoc);
+
+        String stubId = "method:" + methodDoc.qualifiedName() + methodDoc.signature();
+        JSONObject retMe = lookupStub(stubId);
+
+        if (retMe != null) {
+            return retMe;
+        }
+
+        retMe = processExecutableMemberDocStub(methodDoc);
 
         retMe.put("returnType", processTypeStub(methodDoc.returnType()));
 
-        return retMe;
+        return defineStub(stubId, retMe);
     }
 
     /**
@@ -693,10 +998,29 @@ public class JsonDoclet {
     }
 
     /**
+     * Any exception in the method's throws clause that isn't documented by a @throws tag
+     * inherits the @throws tag from the overridden method (or specified-by method).
+     * Any @throws comment that's missing or contains {@inheritDoc} is resolved.
+     *
      * @return retMe
      */
     protected JSONObject inheritThrowsTags(JSONObject retMe, MethodDoc methodDoc, MethodDoc specifiedByMethodDoc) {
-        // TODO
+
+        List<ThrowsTag> throwsTags = getInheritedThrowsTags(methodDoc, specifiedByMethodDoc);
+
+        List<Map> throwsTagModels = new ArrayList<Map>();
+
+        for ( ThrowsTag throwsTag : throwsTags ) {
+
+            Map throwsTagModel = processThrowsTag(throwsTag);
+
+            throwsTagModel.put("exceptionComment", getInheritedThrowsTagComment(methodDoc, getExceptionName(throwsTag), specifiedByMethodDoc) );
+
+            throwsTagModels.add(throwsTagModel);
+        }
+
+        retMe.put("throwsTags", throwsTagModels);
+
         return retMe;
     }
     
@@ -715,26 +1039,39 @@ public class JsonDoclet {
         
         return currentText;
     }
+
+    /**
+     * @return true if the given text is empty or contains {@inheritDoc}, i.e. it needs
+     *         doc from the overridden method.
+     */
+    protected boolean isInheritDocNeeded(String text) {
+        return StringUtils.isEmpty(text) || text.contains(JsonDoclet.InheritDocTag);
+    }
+
+    /**
+     * @return the memo of inherited doc for the given methodDoc.
+     */
+    protected InheritedDoc getInheritedDoc(MethodDoc methodDoc) {
+        InheritedDoc retMe = inheritedDocCache.get(methodDoc);
+        if (retMe == null) {
+            retMe = new InheritedDoc();
+            inheritedDocCache.put(methodDoc, retMe);
+        }
+        return retMe;
+    }
  
     /**
      * Resolve inherited comment text by scanning up the methodDoc's inheritance chain,
      * resolving any {@inheritDoc} encountered along the way.
      *
-     * This method returns as soon as it finds a non-empty commentText with all {@inheritDoc}
+     * The scan stops as soon as it finds a non-empty commentText with all {@inheritDoc}
      * tags resolved.
      * 
      * @return the comment text for the given methodDoc, all inheritance resolved.
      */
     protected String getInheritedCommentText(MethodDoc methodDoc, MethodDoc specifiedByMethodDoc) {
 
-        String retMe = null;
-        
-        for ( ;
-             methodDoc != null && (StringUtils.isEmpty(retMe) || retMe.contains(JsonDoclet.InheritDocTag) );
-             methodDoc = methodDoc.overriddenMethod() ) {
-
-            retMe = resolveInheritDoc(retMe, methodDoc.commentText() );
-        }
+        String retMe = getInheritedCommentText(methodDoc);
         
         // Inherit from the interface
         retMe = resolveInheritDoc(retMe, (specifiedByMethodDoc != null) ? specifiedByMethodDoc.commentText() : null);
@@ -742,6 +1079,32 @@ public class JsonDoclet {
         return retMe;
     }
 
+    /**
+     * @return the comment text for the given methodDoc, with inheritance resolved up the
+     *         overriddenMethod chain (not including the specified-by method).  Memoized
+     *         per MethodDoc, so the chain is walked only once.
+     */
+    protected String getInheritedCommentText(MethodDoc methodDoc) {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+
+        if (!inheritedDoc.isResolved(InheritedDoc.CommentText)) {
+            String commentText = methodDoc.commentText();
+
+            if (isInheritDocNeeded(commentText)) {
+                commentText = resolveInheritDoc(commentText, getInheritedCommentText( methodDoc.overriddenMethod() ) );
+            }
+
+            inheritedDoc.put(InheritedDoc.CommentText, commentText);
+        }
+
+        return inheritedDoc.get(InheritedDoc.CommentText);
+    }
+
     /**
      * Resolve inherited @return tag text by scanning up the methodDoc's inheritance chain,
      * resolving any {@inheritDoc} encountered along the way.
@@ -757,14 +1120,7 @@ public class JsonDoclet {
      */
     protected String getInheritedReturnTagText(MethodDoc methodDoc, MethodDoc specifiedByMethodDoc) {
 
-        String retMe = null;
-        
-        for ( ;
-             methodDoc != null && (StringUtils.isEmpty(retMe) || retMe.contains(JsonDoclet.InheritDocTag) );
-             methodDoc = methodDoc.overriddenMethod() ) {
-            
-            retMe = resolveInheritDoc(retMe, getReturnTagText( methodDoc ) );
-        }
+        String retMe = getInheritedReturnTagText(methodDoc);
         
         // Inherit from the interface
         retMe = resolveInheritDoc(retMe, getReturnTagText( specifiedByMethodDoc) );
@@ -772,6 +1128,31 @@ public class JsonDoclet {
         return retMe;
     }
 
+    /**
+     * @return the @return tag text for the given methodDoc, with inheritance resolved up the
+     *         overriddenMethod chain.  Memoized per MethodDoc.
+     */
+    protected String getInheritedReturnTagText(MethodDoc methodDoc) {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+
+        if (!inheritedDoc.isResolved(InheritedDoc.ReturnTagText)) {
+            String returnTagText = getReturnTagText(methodDoc);
+
+            if (isInheritDocNeeded(returnTagText)) {
+                returnTagText = resolveInheritDoc(returnTagText, getInheritedReturnTagText( methodDoc.overriddenMethod() ) );
+            }
+
+            inheritedDoc.put(InheritedDoc.ReturnTagText, returnTagText);
+        }
+
+        return inheritedDoc.get(InheritedDoc.ReturnTagText);
+    }
+
     /**
      * @return the @return tag text for the given methodDoc, or null if not found.
      */
@@ -804,14 +1185,7 @@ public class JsonDoclet {
      */
     protected String getInheritedParamTagComment(MethodDoc methodDoc, String parameterName, MethodDoc specifiedByMethodDoc) {
 
-        String retMe = null;
-        
-        for ( ;
-             methodDoc != null && (StringUtils.isEmpty(retMe) || retMe.contains(JsonDoclet.InheritDocTag) );
-             methodDoc = methodDoc.overriddenMethod() ) {
-
-            retMe = resolveInheritDoc(retMe, getParamTagComment( methodDoc, parameterName ));
-        }
+        String retMe = getInheritedParamTagComment(methodDoc, parameterName);
         
         // Inherit from the interface
         retMe = resolveInheritDoc(retMe, getParamTagComment( specifiedByMethodDoc, parameterName) );
@@ -819,6 +1193,32 @@ public class JsonDoclet {
         return retMe;
     }
 
+    /**
+     * @return the @param tag text for the given methodDoc and parameter, with inheritance 
+     *         resolved up the overriddenMethod chain.  Memoized per MethodDoc.
+     */
+    protected String getInheritedParamTagComment(MethodDoc methodDoc, String parameterName) {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+        String key = InheritedDoc.paramTagCommentKey(parameterName);
+
+        if (!inheritedDoc.isResolved(key)) {
+            String paramTagComment = getParamTagComment(methodDoc, parameterName);
+
+            if (isInheritDocNeeded(paramTagComment)) {
+                paramTagComment = resolveInheritDoc(paramTagComment, getInheritedParamTagComment( methodDoc.overriddenMethod(), parameterName ) );
+            }
+
+            inheritedDoc.put(key, paramTagComment);
+        }
+
+        return inheritedDoc.get(key);
+    }
+
     /**
      * @return the @param tag comment for the given methodDoc and parameter, or null if not found.
      */
@@ -881,57 +1281,212 @@ public class JsonDoclet {
      */
     protected ParamTag getInheritedParamTag(MethodDoc methodDoc, String parameterName, MethodDoc specifiedByMethodDoc)  {
 
-        for ( ;
-             methodDoc != null;
-             methodDoc = methodDoc.overriddenMethod() ) {
-
-            ParamTag retMe = getParamTag( methodDoc.paramTags(), parameterName );
-            if (retMe != null) {
-                return retMe;
-            }
+        ParamTag retMe = getInheritedParamTag(methodDoc, parameterName);
+        if (retMe != null) {
+            return retMe;
         }
         
         // Couldn't find it in the superclass hierarchy. Check the interface method
         return (specifiedByMethodDoc != null) ? getParamTag( specifiedByMethodDoc.paramTags(), parameterName ) : null;
     }
-    
+
     /**
-     * 
+     * @return the first non-null ParamTag with the given parameterName in the overriddenMethod
+     *         chain for the given methodDoc.  Memoized per MethodDoc.
      */
-    protected MethodDoc getSpecifiedByMethod(MethodDoc methodDoc) {
-        
-        List<ClassDoc> allInterfaces = getAllInterfaces(methodDoc.containingClass());
-        
-        for (ClassDoc intf : allInterfaces) {
-            MethodDoc specifiedByMethod = getSpecifiedByMethod(methodDoc, intf);
-            if (specifiedByMethod != null) {
-                return specifiedByMethod;
+    protected ParamTag getInheritedParamTag(MethodDoc methodDoc, String parameterName)  {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+        String key = InheritedDoc.paramTagKey(parameterName);
+
+        if (!inheritedDoc.isResolved(key)) {
+            ParamTag paramTag = getParamTag( methodDoc.paramTags(), parameterName );
+
+            inheritedDoc.put(key, (paramTag != null) ? paramTag : getInheritedParamTag( methodDoc.overriddenMethod(), parameterName ) );
+        }
+
+        return inheritedDoc.get(key);
+    }
+
+    /**
+     * @return the name used to match @throws tags with the method's throws clause: the
+     *         exception's qualified name, if it could be resolved; otherwise the name as written.
+     */
+    protected String getExceptionName(ThrowsTag throwsTag) {
+        return (throwsTag.exceptionType() != null) ? throwsTag.exceptionType().qualifiedTypeName() : throwsTag.exceptionName();
+    }
+
+    /**
+     * @return the first @throws tag for the given exception, or null if not found.
+     */
+    protected ThrowsTag getThrowsTag(ThrowsTag[] throwsTags, String exceptionName) {
+
+        for (ThrowsTag throwsTag : Cawls.safeIterable(throwsTags)) {
+            if (getExceptionName(throwsTag).equals( exceptionName )) {
+                return throwsTag;
             }
         }
         
         return null;
     }
-    
+
+    /**
+     * @return the @throws tag comment for the given methodDoc and exception, or null if not found.
+     */
+    protected String getThrowsTagComment(MethodDoc methodDoc, String exceptionName) {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        ThrowsTag throwsTag = getThrowsTag( methodDoc.throwsTags(), exceptionName );
+        return (throwsTag != null) ? throwsTag.exceptionComment() : null;
+    }
+
     /**
-     * @return the method from the given intf (or its superclasses) that is overridden
-     *         (or implemented by) the given methodDoc.
+     * Resolve inherited @throws tags.
+     *
+     * The list contains the methodDoc's own @throws tags, followed by an inherited
+     * @throws tag for each exception in the method's throws clause that the method
+     * doesn't document itself.
+     * 
+     * @return a list of @throws tags for the given methodDoc, some of which may be inherited.
      */
-    protected MethodDoc getSpecifiedByMethod(MethodDoc methodDoc, ClassDoc intf) {
+    protected List<ThrowsTag> getInheritedThrowsTags(MethodDoc methodDoc, MethodDoc specifiedByMethodDoc) {
+
+        List<ThrowsTag> retMe = new ArrayList<ThrowsTag>( Arrays.asList( methodDoc.throwsTags() ) );
+
+        Set<String> documented = new HashSet<String>();
+        for (ThrowsTag throwsTag : retMe) {
+            documented.add( getExceptionName(throwsTag) );
+        }
+
+        for ( Type exceptionType : methodDoc.thrownExceptionTypes() ) {
+
+            String exceptionName = exceptionType.qualifiedTypeName();
+
+            if (documented.add(exceptionName)) {
+                ThrowsTag throwsTag = getInheritedThrowsTag( methodDoc.overriddenMethod(), exceptionName );
+
+                if (throwsTag == null && specifiedByMethodDoc != null) {
+                    throwsTag = getThrowsTag( specifiedByMethodDoc.throwsTags(), exceptionName );
+                }
+
+                if (throwsTag != null) {
+                    retMe.add( throwsTag );
+                }
+            }
+        }
+
+        return retMe;
+    }
+
+    /**
+     * @return the first @throws tag for the given exception in the overriddenMethod
+     *         chain for the given methodDoc.  Memoized per MethodDoc.
+     */
+    protected ThrowsTag getInheritedThrowsTag(MethodDoc methodDoc, String exceptionName)  {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+        String key = InheritedDoc.throwsTagKey(exceptionName);
+
+        if (!inheritedDoc.isResolved(key)) {
+            ThrowsTag throwsTag = getThrowsTag( methodDoc.throwsTags(), exceptionName );
+
+            inheritedDoc.put(key, (throwsTag != null) ? throwsTag : getInheritedThrowsTag( methodDoc.overriddenMethod(), exceptionName ) );
+        }
+
+        return inheritedDoc.get(key);
+    }
+
+    /**
+     * Resolve inherited @throws tag text.  Same logic as getInheritedParamTagComment.
+     * 
+     * @return the @throws tag text for the given methodDoc and exception, all inheritance resolved.
+     */
+    protected String getInheritedThrowsTagComment(MethodDoc methodDoc, String exceptionName, MethodDoc specifiedByMethodDoc) {
+
+        String retMe = getInheritedThrowsTagComment(methodDoc, exceptionName);
         
-        MethodDoc retMe = null;
+        // Inherit from the interface
+        retMe = resolveInheritDoc(retMe, getThrowsTagComment( specifiedByMethodDoc, exceptionName) );
         
-        if (intf != null) {
-            retMe = getOverriddenMethod( methodDoc, intf.methods() ); 
-            
-            if (retMe == null) {
-                // Try the super interface.
-                retMe = getSpecifiedByMethod( methodDoc, intf.superclass() );
+        return retMe;
+    }
+
+    /**
+     * @return the @throws tag text for the given methodDoc and exception, with inheritance 
+     *         resolved up the overriddenMethod chain.  Memoized per MethodDoc.
+     */
+    protected String getInheritedThrowsTagComment(MethodDoc methodDoc, String exceptionName) {
+
+        if (methodDoc == null) {
+            return null;
+        }
+
+        InheritedDoc inheritedDoc = getInheritedDoc(methodDoc);
+        String key = InheritedDoc.throwsTagCommentKey(exceptionName);
+
+        if (!inheritedDoc.isResolved(key)) {
+            String throwsTagComment = getThrowsTagComment(methodDoc, exceptionName);
+
+            if (isInheritDocNeeded(throwsTagComment)) {
+                throwsTagComment = resolveInheritDoc(throwsTagComment, getInheritedThrowsTagComment( methodDoc.overriddenMethod(), exceptionName ) );
             }
+
+            inheritedDoc.put(key, throwsTagComment);
         }
-        
+
+        return inheritedDoc.get(key);
+    }
+    
+    /**
+     * @return the interface method that is overridden (or implemented) by the given
+     *         methodDoc, or null.  The interfaces are searched in the order given
+     *         by getAllInterfaces.
+     */
+    protected MethodDoc getSpecifiedByMethod(MethodDoc methodDoc) {
+        return getSpecifiedByIndex( methodDoc.containingClass() ).findOverriddenBy( methodDoc );
+    }
+
+    /**
+     * @return an index of the methods of all interfaces implemented by the given classDoc
+     *         (and its superclasses), in search order: for each interface returned by
+     *         getAllInterfaces (the class's own interfaces first, then its superclasses'),
+     *         the interface's methods, then those of its superclass() chain.  An interface
+     *         that was already indexed (along with its superclass chain) isn't indexed again.
+     *         When more than one indexed method is overridden by a method, the first one wins.
+     *
+     *         Built once per class and cached, so it's shared by all of the class's methods.
+     */
+    protected MethodIndex getSpecifiedByIndex(ClassDoc classDoc) {
+
+        MethodIndex retMe = specifiedByIndexCache.get(classDoc.qualifiedName());
+
+        if (retMe == null) {
+            retMe = new MethodIndex();
+            Set<ClassDoc> indexed = new HashSet<ClassDoc>();
+
+            for (ClassDoc intf : getAllInterfaces(classDoc)) {
+                for ( ; intf != null && indexed.add(intf); intf = intf.superclass() ) {
+                    retMe.addAll( intf.methods() );
+                }
+            }
+
+            specifiedByIndexCache.put(classDoc.qualifiedName(), retMe);
+        }
+
         return retMe;
     }
- 
+    
     /**
      * @return full JSON objects for the given FieldDoc[]
      */
@@ -981,13 +1536,22 @@ public class JsonDoclet {
         if (fieldDoc == null) {
             return null;
         }
+
+        recordReference(fieldDoc);
+
+        String stubId = "field:" + fieldDoc.qualifiedName();
+        JSONObject retMe = lookupStub(stubId);
+
+        if (retMe != null) {
+            return retMe;
+        }
         
-        JSONObject retMe = processMemberDocStub(fieldDoc);
+        retMe = processMemberDocStub(fieldDoc);
 
         retMe.put("type", processTypeStub(fieldDoc.type()));
         retMe.put("constantValueExpression", fieldDoc.constantValueExpression());
         
-        return retMe;
+        return defineStub(stubId, retMe);
     }
     
     /**
@@ -1118,8 +1682,6 @@ public class JsonDoclet {
         
         retMe.put("containingPackage", processPackageDocStub(programElementDoc.containingPackage()) );
         
-        packageDocs.add(programElementDoc.containingPackage());
-        
         retMe.put("containingClass", processClassDocStub(programElementDoc.containingClass()) );
         retMe.put("qualifiedName", programElementDoc.qualifiedName());
         
@@ -1248,14 +1810,23 @@ public class JsonDoclet {
         if (annoTypeElementDoc == null) {
             return null;
         }
+
+        recordReference(annoTypeElementDoc);
+
+        String stubId = "element:" + annoTypeElementDoc.qualifiedName();
+        JSONObject retMe = lookupStub(stubId);
+
+        if (retMe != null) {
+            return retMe;
+        }
         
-        JSONObject retMe = processMemberDocStub( annoTypeElementDoc );
+        retMe = processMemberDocStub( annoTypeElementDoc );
         
         retMe.put("returnType", processTypeStub(annoTypeElementDoc.returnType()));
         
         // JSONObject retMe = new JSONObject();
         // retMe.put("name", annoTypeElementDoc.name())
-        return retMe;
+        return defineStub(stubId, retMe);
     }
     
     /**
@@ -1327,7 +1898,9 @@ public class JsonDoclet {
             return null;
         }
         
-        JSONObject retMe = processType(typeVariable);
+        // processType returns a shared object. Copy it before adding to it.
+        JSONObject retMe = new JSONObject();
+        retMe.putAll( processType(typeVariable) );
         
         retMe.put("bounds", processTypes(typeVariable.bounds()));
         
@@ -1357,8 +1930,15 @@ public class JsonDoclet {
         if (type == null) {
             return null;
         }
+
+        String typeKey = getTypeKey(type);
+        SharedJSONObject retMe = typeCache.get(typeKey);
+
+        if (retMe != null) {
+            return retMe;
+        }
         
-        JSONObject retMe = new JSONObject();
+        retMe = new SharedJSONObject();
         
         retMe.put("qualifiedTypeName", type.qualifiedTypeName());
         retMe.put("simpleTypeName", type.simpleTypeName());
@@ -1370,16 +1950,83 @@ public class JsonDoclet {
         retMe.put("wildcardType", processWildcardType( type.asWildcardType() ) );
 
         // TODO: add metaType=type/parameterizedType/wildcardType
+
+        typeCache.put(typeKey, retMe.freeze());
         
         return retMe;
     }
 
+    /**
+     * toString() alone doesn't identify a type's JSON: e.g. a generic ClassDoc and the
+     * ParameterizedType for its declaration have the same toString(), and the type 
+     * arguments' toString() may include bounds that the parameterized type's doesn't.
+     * 
+     * @return a key that identifies the JSON for the given Type (see processType): its 
+     *         names, plus the keys of its type arguments and wildcard bounds.  Memoized
+     *         per Type instance (see typeKeyCache).
+     */
+    protected String getTypeKey(Type type) {
+
+        String retMe = typeKeyCache.get(type);
+
+        if (retMe == null) {
+            StringBuilder sb = new StringBuilder();
+            appendTypeKey(sb, type);
+            retMe = sb.toString();
+            typeKeyCache.put(type, retMe);
+        }
+
+        return retMe;
+    }
+
+    /**
+     * Append the key for the given type (see getTypeKey) to the given StringBuilder.
+     * Type arguments and bounds are appended via getTypeKey, so their keys are reused.
+     */
+    protected void appendTypeKey(StringBuilder sb, Type type) {
+
+        sb.append(type.toString())
+          .append('|').append(type.qualifiedTypeName())
+          .append('|').append(type.simpleTypeName())
+          .append('|').append(type.typeName())
+          .append('|').append(type.dimension());
+
+        ParameterizedType parameterizedType = type.asParameterizedType();
+        if (parameterizedType != null) {
+            sb.append("|<");
+            for (Type typeArgument : parameterizedType.typeArguments()) {
+                sb.append( getTypeKey(typeArgument) ).append(',');
+            }
+            sb.append('>');
+        }
+
+        WildcardType wildcardType = type.asWildcardType();
+        if (wildcardType != null) {
+            sb.append("|?extends(");
+            for (Type bound : wildcardType.extendsBounds()) {
+                sb.append( getTypeKey(bound) ).append(',');
+            }
+            sb.append(")super(");
+            for (Type bound : wildcardType.superBounds()) {
+                sb.append( getTypeKey(bound) ).append(',');
+            }
+            sb.append(')');
+        }
+    }
+
     /**
      * @return a JSON stub for the given Type
      */
     protected JSONObject processTypeStub(Type type) {
 
-        return processType(type);
+        if (type == null) {
+            return null;
+        }
+
+        String stubId = "type:" + getTypeKey(type);
+        JSONObject retMe = lookupStub(stubId);
+
+        return (retMe != null) ? retMe : defineStub(stubId, processType(type));
         
         // -rx- if (type == null) {
         // -rx-     return null;
@@ -1428,6 +2075,50 @@ public class JsonDoclet {
         return retMe;
     }
 
+    /**
+     * Stubs are identified by a stub id, e.g. "class:java.lang.String" or
+     * "method:java.lang.String.substring(int, int)".  The process*Stub methods
+     * call lookupStub before building a stub and defineStub after.
+     *
+     * @return in -refs mode, the reference object for the given stub id, if the
+     *         stub has already been defined; otherwise the cached stub, if any; 
+     *         otherwise null.
+     */
+    protected JSONObject lookupStub(String stubId) {
+
+        JSONObject ref = (symbolTable != null) ? symbolTable.lookupRef(stubId) : null;
+        if (ref != null) {
+            return ref;
+        }
+
+        JSONObject stub = (stubCache != null) ? stubCache.get(stubId) : null;
+        if (stub == null) {
+            return null;
+        }
+
+        // Cached, but not (or no longer) in the symbol table.
+        return (symbolTable != null) ? symbolTable.define(stubId, stub) : stub;
+    }
+
+    /**
+     * Cache the given stub.  Cached stubs are shared, so they're frozen.
+     *
+     * @return in -refs mode, the stub is added to the symbol table and a reference 
+     *         object is returned in its place; otherwise the stub is returned as is.
+     */
+    protected JSONObject defineStub(String stubId, JSONObject stub) {
+
+        if (stub instanceof SharedJSONObject) {
+            ((SharedJSONObject) stub).freeze();
+        }
+
+        if (stubCache != null && stub != null) {
+            stubCache.put(stubId, stub);
+        }
+
+        return (symbolTable != null) ? symbolTable.define(stubId, stub) : stub;
+    }
+
     /**
      * The Doc element is a supertype to the others (ClassDoc, PackageDoc, etc).
      * 
@@ -1473,7 +2164,8 @@ public class JsonDoclet {
             return null;
         }
         
-        JSONObject retMe = new JSONObject();
+        // Stubs are cached and shared (see defineStub).
+        JSONObject retMe = new SharedJSONObject();
         
         retMe.put("name", doc.name());
         retMe.put("metaType", determineMetaType(doc));
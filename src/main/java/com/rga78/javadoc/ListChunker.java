@@ -9,6 +9,10 @@ import java.util.List;
  * This is useful for when you've got a ton of *.java files to run thru javadoc
  * but you can't specify all of them on the javadoc command at once because
  * you'll overrun the command length limit.
+ *
+ * Note: SimpleJavadocProcess switches to an @argfile when the command gets too long
+ * (see setArgFileThreshold), so chunking is no longer needed just to stay under the
+ * limit.  It's still handy for splitting work across JVMs (see ShardedJavadocProcess).
  */
 public class ListChunker<T> extends ArrayList<List<T>> {
     
@@ -18,4 +22,4 @@ public class ListChunker<T> extends ArrayList<List<T>> {
             super.add( list.subList(i, endIndex) );
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.rga78.javadoc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.javadoc.MethodDoc;
+
+/**
+ * Index of MethodDocs for fast override checks.
+ *
+ * Methods are keyed by name and parameter count.  A method can only override another
+ * method with the same key, so an override check only needs to call MethodDoc.overrides
+ * on the (few) methods with a matching key, instead of on every method in the class.
+ *
+ * Note: the key is deliberately looser than the erased signature.  A generic override
+ * may not have the same erasure as the method it overrides (e.g. compareTo(String)
+ * overrides Comparable<T>.compareTo(T), whose erasure is compareTo(Object)), so
+ * overrides() is always the final word.
+ *
+ * Methods with the same key are kept in the order they were added.
+ */
+public class MethodIndex {
+
+    /**
+     * The methods, keyed by name + parameter count.
+     */
+    private Map<String, List<MethodDoc>> methods = new HashMap<String, List<MethodDoc>>();
+
+    /**
+     * Add the given method to the index.
+     *
+     * @return this
+     */
+    public MethodIndex add(MethodDoc methodDoc) {
+        String key = getKey(methodDoc);
+
+        List<MethodDoc> candidates = methods.get(key);
+        if (candidates == null) {
+            candidates = new ArrayList<MethodDoc>(1);
+            methods.put(key, candidates);
+        }
+
+        candidates.add(methodDoc);
+        return this;
+    }
+
+    /**
+     * Add the given methods to the index.
+     *
+     * @return this
+     */
+    public MethodIndex addAll(MethodDoc[] methodDocs) {
+        for (MethodDoc methodDoc : methodDocs) {
+            add(methodDoc);
+        }
+        return this;
+    }
+
+    /**
+     * Add the given methods to the index.
+     *
+     * @return this
+     */
+    public MethodIndex addAll(Collection<MethodDoc> methodDocs) {
+        for (MethodDoc methodDoc : methodDocs) {
+            add(methodDoc);
+        }
+        return this;
+    }
+
+    /**
+     * @return the indexed methods with the same name and parameter count as the given method.
+     */
+    public List<MethodDoc> getCandidates(MethodDoc methodDoc) {
+        List<MethodDoc> retMe = methods.get(getKey(methodDoc));
+        return (retMe != null) ? retMe : Collections.<MethodDoc>emptyList();
+    }
+
+    /**
+     * @return true if one of the indexed methods overrides the given supermethodDoc.
+     */
+    public boolean containsOverrideOf(MethodDoc supermethodDoc) {
+        for (MethodDoc methodDoc : getCandidates(supermethodDoc)) {
+            if (methodDoc.overrides(supermethodDoc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first indexed method that is overridden by the given methodDoc, or null.
+     */
+    public MethodDoc findOverriddenBy(MethodDoc methodDoc) {
+        for (MethodDoc supermethodDoc : getCandidates(methodDoc)) {
+            if (methodDoc.overrides(supermethodDoc)) {
+                return supermethodDoc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the index key for the given method
+     */
+    protected String getKey(MethodDoc methodDoc) {
+        return methodDoc.name() + "/" + methodDoc.parameters().length;
+    }
+
+}
@@ -0,0 +1,453 @@
+package com.rga78.javadoc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Plans how to split a set of packages into shards for ShardedJavadocProcess.
+ *
+ * The planner scans the source files under the sourcepath (without running javadoc)
+ * for the types each package extends or implements.  Packages whose type hierarchies
+ * depend on each other (i.e. strongly connected packages in the extends/implements
+ * graph) are kept together in the same shard.  The groups are then spread across the
+ * shards, balanced by source size (bytes), largest first.
+ *
+ * Note: each shard is run with the full sourcepath, so javadoc can always load a
+ * class's ancestors (and their doc comments, for {@inheritDoc}) even when they're
+ * in a different shard.  The output is correct however the packages are split; the
+ * grouping is about cost, not correctness.  A shard's real cost is its own sources
+ * plus the ancestor sources javadoc loads from the sourcepath.  For packages in a
+ * cycle, the ancestors are (mostly) the rest of the cycle, so a shard holding just
+ * one of them would parse most of the others anyway, and every shard the cycle was
+ * split across would pay for the whole cycle.  Kept together, a cycle is parsed 
+ * once, and its byte count is a fair estimate of its cost, which is what the 
+ * balancing relies on.
+ *
+ * The scan is a cheap regex pass.  It ignores comments and resolves type names via
+ * the file's imports and package; it isn't a compiler, so the graph may be missing
+ * an edge here and there, which affects only the balance, not the output.
+ */
+public class ShardPlanner {
+
+    private static final Pattern ImportPattern = Pattern.compile("\\bimport\\s+(?:static\\s+)?([\\w.]+)\\s*(\\.\\s*\\*)?\\s*;");
+
+    private static final Pattern ExtendsPattern = Pattern.compile("\\b(?:extends|implements)\\s+([^{;]+)");
+
+    private static final Pattern GenericArgsPattern = Pattern.compile("<[^<>]*>");
+
+    private static final Pattern TypeNamePattern = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$][\\w$]*)*");
+
+    /**
+     * The source root.
+     */
+    private File sourcePath;
+
+    /**
+     * Scanned packages, in order.  Package name -> source bytes.
+     */
+    private Map<String, Long> packageBytes = new LinkedHashMap<String, Long>();
+
+    /**
+     * Package name -> simple names of its top-level types (from the file names).
+     */
+    private Map<String, Set<String>> packageTypes = new HashMap<String, Set<String>>();
+
+    /**
+     * The extends/implements graph: package -> packages it depends on.
+     */
+    private Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+
+    /**
+     * CTOR.
+     */
+    public ShardPlanner(File sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    /**
+     * @return the directory for the given package.
+     */
+    protected File getPackageDir(String packageName) {
+        return new File(sourcePath, packageName.replace('.', File.separatorChar));
+    }
+
+    /**
+     * @return the .java files directly in the given package
+     */
+    protected List<File> listSourceFiles(String packageName) {
+        List<File> retMe = new ArrayList<File>();
+
+        File[] files = getPackageDir(packageName).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".java")) {
+                    retMe.add(file);
+                }
+            }
+        }
+
+        Collections.sort(retMe);
+        return retMe;
+    }
+
+    /**
+     * @return the given subpackage and all packages beneath it that contain .java files
+     *         (i.e. what javadoc's -subpackages option would process).
+     */
+    public List<String> expandSubpackage(String subpackage) {
+        List<String> retMe = new ArrayList<String>();
+        expandSubpackage(subpackage, retMe);
+        return retMe;
+    }
+
+    /**
+     * Recursive helper for expandSubpackage.
+     */
+    protected void expandSubpackage(String packageName, List<String> retMe) {
+
+        if (!listSourceFiles(packageName).isEmpty()) {
+            retMe.add(packageName);
+        }
+
+        File[] subdirs = getPackageDir(packageName).listFiles();
+        if (subdirs == null) {
+            return;
+        }
+
+        List<String> names = new ArrayList<String>();
+        for (File subdir : subdirs) {
+            if (subdir.isDirectory()) {
+                names.add(subdir.getName());
+            }
+        }
+        Collections.sort(names);
+
+        for (String name : names) {
+            expandSubpackage(packageName + "." + name, retMe);
+        }
+    }
+
+    /**
+     * Scan the given packages' source files.
+     *
+     * @return this
+     */
+    public ShardPlanner scan(List<String> packages) throws IOException {
+
+        // First pass: the type names in each package, for resolving simple names.
+        for (String packageName : packages) {
+            if (packageBytes.containsKey(packageName)) {
+                continue;
+            }
+
+            long bytes = 0;
+            Set<String> types = new HashSet<String>();
+
+            for (File file : listSourceFiles(packageName)) {
+                bytes += file.length();
+                types.add( file.getName().substring(0, file.getName().length() - ".java".length()) );
+            }
+
+            packageBytes.put(packageName, bytes);
+            packageTypes.put(packageName, types);
+        }
+
+        // Second pass: the extends/implements edges.
+        for (String packageName : packageBytes.keySet()) {
+            if (dependencies.containsKey(packageName)) {
+                continue;
+            }
+
+            Set<String> deps = new TreeSet<String>();
+            for (File file : listSourceFiles(packageName)) {
+                scanSourceFile(packageName, FileUtils.readFileToString(file), deps);
+            }
+            deps.remove(packageName);
+
+            dependencies.put(packageName, deps);
+        }
+
+        return this;
+    }
+
+    /**
+     * Add the packages of the types extended/implemented in the given source to deps.
+     */
+    protected void scanSourceFile(String packageName, String source, Set<String> deps) {
+
+        source = stripCommentsAndLiterals(source);
+
+        // Simple name -> package, for single-type imports.  Plus on-demand (.*) imports.
+        Map<String, String> singleTypeImports = new HashMap<String, String>();
+        List<String> onDemandImports = new ArrayList<String>();
+
+        Matcher importMatcher = ImportPattern.matcher(source);
+        while (importMatcher.find()) {
+            String name = importMatcher.group(1);
+            if (importMatcher.group(2) != null) {
+                onDemandImports.add(name);
+            } else {
+                int lastDot = name.lastIndexOf('.');
+                if (lastDot > 0) {
+                    singleTypeImports.put( name.substring(lastDot + 1), name.substring(0, lastDot) );
+                }
+            }
+        }
+
+        Matcher extendsMatcher = ExtendsPattern.matcher(source);
+        while (extendsMatcher.find()) {
+
+            String clause = extendsMatcher.group(1);
+
+            // Strip generic args, innermost first.
+            for (String prev = null; !clause.equals(prev); ) {
+                prev = clause;
+                clause = GenericArgsPattern.matcher(clause).replaceAll(" ");
+            }
+
+            Matcher typeNameMatcher = TypeNamePattern.matcher(clause);
+            while (typeNameMatcher.find()) {
+                String typeName = typeNameMatcher.group().replaceAll("\\s", "");
+                if (typeName.equals("implements") || typeName.equals("extends")) {
+                    continue;
+                }
+
+                String dep = resolvePackage(typeName, packageName, singleTypeImports, onDemandImports);
+                if (dep != null) {
+                    deps.add(dep);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the given source with comments replaced by a space and the contents of
+     *         string and char literals removed.
+     */
+    protected String stripCommentsAndLiterals(String source) {
+
+        StringBuilder sb = new StringBuilder(source.length());
+        int len = source.length();
+
+        for (int i=0; i < len; ++i) {
+            char c = source.charAt(i);
+            char next = (i + 1 < len) ? source.charAt(i + 1) : 0;
+
+            if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = (end < 0) ? len : end + 1;
+                sb.append(' ');
+
+            } else if (c == '/' && next == '/') {
+                int end = source.indexOf('\n', i + 2);
+                i = (end < 0) ? len : end - 1;
+                sb.append(' ');
+
+            } else if (c == '"' || c == '\'') {
+                // Skip to the closing quote, minding escapes.
+                for (++i; i < len && source.charAt(i) != c; ++i) {
+                    if (source.charAt(i) == '\\') {
+                        ++i;
+                    }
+                }
+                sb.append(c).append(c);
+
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return the scanned package that contains the given type, or null if it's not
+     *         in a scanned package (or can't be resolved).
+     */
+    protected String resolvePackage(String typeName,
+                                    String packageName,
+                                    Map<String, String> singleTypeImports,
+                                    List<String> onDemandImports) {
+
+        // Qualified name: the longest prefix that's a scanned package.
+        for (int dot = typeName.lastIndexOf('.'); dot > 0; dot = typeName.lastIndexOf('.', dot - 1)) {
+            if (packageBytes.containsKey( typeName.substring(0, dot) )) {
+                return typeName.substring(0, dot);
+            }
+        }
+
+        // Simple (or nested, e.g. Map.Entry) name: resolve the first segment.
+        String simpleName = (typeName.indexOf('.') > 0) ? typeName.substring(0, typeName.indexOf('.')) : typeName;
+
+        String importedPackage = singleTypeImports.get(simpleName);
+        if (importedPackage != null) {
+            return (packageBytes.containsKey(importedPackage)) ? importedPackage : null;
+        }
+
+        if (packageTypes.get(packageName).contains(simpleName)) {
+            return packageName;
+        }
+
+        for (String onDemandImport : onDemandImports) {
+            Set<String> types = packageTypes.get(onDemandImport);
+            if (types != null && types.contains(simpleName)) {
+                return onDemandImport;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the packages the given package depends on (extends/implements), among
+     *         the scanned packages.
+     */
+    public Set<String> getDependencies(String packageName) {
+        return dependencies.get(packageName);
+    }
+
+    /**
+     * @return the scanned package's source size in bytes.
+     */
+    public long getBytes(String packageName) {
+        return packageBytes.get(packageName);
+    }
+
+    /**
+     * @return the strongly connected components of the package graph (Tarjan's algorithm).
+     *         Each component is a list of packages, in scan order.
+     */
+    public List<List<String>> getStronglyConnectedPackages() {
+
+        final Map<String, Integer> index = new HashMap<String, Integer>();
+        final Map<String, Integer> lowLink = new HashMap<String, Integer>();
+        final List<String> stack = new ArrayList<String>();
+        final Set<String> onStack = new HashSet<String>();
+        final List<List<String>> retMe = new ArrayList<List<String>>();
+
+        for (String packageName : packageBytes.keySet()) {
+            if (!index.containsKey(packageName)) {
+                strongConnect(packageName, index, lowLink, stack, onStack, retMe);
+            }
+        }
+
+        // Scan order within each component.
+        final List<String> scanOrder = new ArrayList<String>(packageBytes.keySet());
+        for (List<String> component : retMe) {
+            Collections.sort(component, new Comparator<String>() {
+                public int compare(String a, String b) {
+                    return scanOrder.indexOf(a) - scanOrder.indexOf(b);
+                }
+            });
+        }
+
+        return retMe;
+    }
+
+    /**
+     * Tarjan's strongconnect.
+     */
+    protected void strongConnect(String packageName,
+                                 Map<String, Integer> index,
+                                 Map<String, Integer> lowLink,
+                                 List<String> stack,
+                                 Set<String> onStack,
+                                 List<List<String>> components) {
+
+        index.put(packageName, index.size());
+        lowLink.put(packageName, index.get(packageName));
+        stack.add(packageName);
+        onStack.add(packageName);
+
+        for (String dep : dependencies.get(packageName)) {
+            if (!index.containsKey(dep)) {
+                strongConnect(dep, index, lowLink, stack, onStack, components);
+                lowLink.put(packageName, Math.min(lowLink.get(packageName), lowLink.get(dep)));
+            } else if (onStack.contains(dep)) {
+                lowLink.put(packageName, Math.min(lowLink.get(packageName), index.get(dep)));
+            }
+        }
+
+        if (lowLink.get(packageName).equals(index.get(packageName))) {
+            List<String> component = new ArrayList<String>();
+            String member;
+            do {
+                member = stack.remove(stack.size() - 1);
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(packageName));
+
+            components.add(component);
+        }
+    }
+
+    /**
+     * Split the scanned packages into at most shardCount shards.  Strongly connected
+     * packages stay together.  The groups are assigned largest first, each to the
+     * shard with the fewest bytes so far.
+     *
+     * @return the packages in each shard.  Empty shards are dropped.
+     */
+    public List<List<String>> plan(int shardCount) {
+
+        List<List<String>> groups = getStronglyConnectedPackages();
+
+        final Map<List<String>, Long> groupBytes = new HashMap<List<String>, Long>();
+        for (List<String> group : groups) {
+            long bytes = 0;
+            for (String packageName : group) {
+                bytes += packageBytes.get(packageName);
+            }
+            groupBytes.put(group, bytes);
+        }
+
+        // Largest first.  Ties keep scan order (the sort is stable).
+        Collections.sort(groups, new Comparator<List<String>>() {
+            public int compare(List<String> a, List<String> b) {
+                return Long.valueOf(groupBytes.get(b)).compareTo(groupBytes.get(a));
+            }
+        });
+
+        int binCount = Math.max(1, shardCount);
+        List<Set<String>> shards = new ArrayList<Set<String>>();
+        long[] shardBytes = new long[binCount];
+        for (int i=0; i < binCount; ++i) {
+            shards.add(new LinkedHashSet<String>());
+        }
+
+        for (List<String> group : groups) {
+            int smallest = 0;
+            for (int i=1; i < binCount; ++i) {
+                if (shardBytes[i] < shardBytes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).addAll(group);
+            shardBytes[smallest] += groupBytes.get(group);
+        }
+
+        List<List<String>> retMe = new ArrayList<List<String>>();
+        for (Set<String> shard : shards) {
+            if (!shard.isEmpty()) {
+                retMe.add( new ArrayList<String>(shard) );
+            }
+        }
+        return retMe;
+    }
+
+}
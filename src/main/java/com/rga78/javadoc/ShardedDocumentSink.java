@@ -0,0 +1,226 @@
+package com.rga78.javadoc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.json.simple.JSONArray;
+
+import com.rga78.json.JSONWriter;
+
+/**
+ * Writes each package's documents to its own file (shard) in an output directory:
+ *
+ *      <outputDir>/<package-name>.json     (or .json.gz with -gzip)
+ *
+ * A manifest describing the shards is written to <outputDir>/manifest.json.
+ * The manifest is rewritten (atomically) each time a shard is completed, so loaders
+ * can start on completed shards while the doclet is still running:
+ *
+ *      {
+ *       "complete": false,
+ *       "shards": [
+ *        {
+ *         "package": "com.foo",
+ *         "file": "com.foo.json",
+ *         "objectCount": 39,
+ *         "bytes": 230770,
+ *         "crc32": "1c291ca3"
+ *        },
+ *        ...
+ *       ]
+ *      }
+ *
+ * "bytes" and "crc32" describe the file as written to disk (i.e. after compression).
+ * "complete" is set to true when the run has finished.
+ *
+ * With -gzip, each shard's gzip block index is written to <file>.idx.
+ */
+public class ShardedDocumentSink implements DocumentSink {
+
+    public static final String ManifestFileName = "manifest.json";
+
+    /**
+     * The output dir.
+     */
+    private File outputDir;
+
+    /**
+     * The output options.
+     */
+    private DocletOptions options;
+
+    /**
+     * The manifest entries for the completed shards.
+     */
+    private JSONArray shards = new JSONArray();
+
+    /**
+     * The current shard's file.
+     */
+    private File shardFile;
+
+    /**
+     * The current shard's channel.
+     */
+    private FileChannel shardChannel;
+
+    /**
+     * Computes the checksum of the current shard as it's written.
+     */
+    private CheckedOutputStream shardChecksumStream;
+
+    /**
+     * Writes the documents to the current shard.
+     */
+    private DocumentWriter shardWriter;
+
+    /**
+     * For encoding documents in parallel, or null.
+     */
+    private ExecutorService encodeExecutor;
+
+    /**
+     * CTOR.
+     */
+    public ShardedDocumentSink(File outputDir, DocletOptions options) throws IOException {
+        this(outputDir, options, null);
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param encodeExecutor - for encoding documents in parallel, or null.  Not shut down by close().
+     */
+    public ShardedDocumentSink(File outputDir, DocletOptions options, ExecutorService encodeExecutor) throws IOException {
+        this.outputDir = outputDir;
+        this.options = options;
+        this.encodeExecutor = encodeExecutor;
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create output directory " + outputDir);
+        }
+    }
+
+    /**
+     * Open the shard file for the given package.
+     */
+    @Override
+    public void startPackage(String packageName) throws IOException {
+
+        shardFile = new File(outputDir, getShardFileName(packageName));
+
+        shardChannel = FileChannel.open( shardFile.toPath(),
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.TRUNCATE_EXISTING,
+                                         StandardOpenOption.WRITE );
+
+        shardChecksumStream = new CheckedOutputStream( Channels.newOutputStream(shardChannel), new CRC32() );
+
+        shardWriter = new DocumentWriter( shardChecksumStream,
+                                          options,
+                                          (options.isGzip()) ? new File(shardFile.getPath() + ".idx") : null,
+                                          encodeExecutor );
+    }
+
+    /**
+     * Write the doc to the current shard.
+     */
+    @Override
+    public void write(Map doc) throws IOException {
+        shardWriter.write(doc);
+    }
+
+    /**
+     * Close the current shard and add it to the manifest.
+     */
+    @Override
+    public void endPackage(String packageName) throws IOException {
+
+        shardWriter.close();
+
+        Map<String, Object> shard = new LinkedHashMap<String, Object>();
+        shard.put("package", packageName);
+        shard.put("file", shardFile.getName());
+        shard.put("objectCount", shardWriter.getDocumentCount());
+        shard.put("bytes", shardChannel.size());
+        shard.put("crc32", Long.toHexString( shardChecksumStream.getChecksum().getValue() ) );
+
+        shardChannel.close();
+        shardWriter = null;
+
+        shards.add(shard);
+        writeManifest(false);
+    }
+
+    /**
+     * Write the final manifest.
+     */
+    @Override
+    public void close() throws IOException {
+        writeManifest(true);
+    }
+
+    /**
+     * @return the manifest entries for the shards written so far.
+     */
+    public JSONArray getShards() {
+        return shards;
+    }
+
+    /**
+     * @return the shard file name for the given package
+     */
+    protected String getShardFileName(String packageName) {
+        String baseName = (packageName.length() == 0) ? "_unnamed" : packageName;
+        return baseName + ((options.isGzip()) ? ".json.gz" : ".json");
+    }
+
+    /**
+     * (Re-)write the manifest.  It's written to a temp file first, then moved into place,
+     * so readers never see a partial manifest.
+     */
+    protected void writeManifest(boolean complete) throws IOException {
+        writeManifest(outputDir, shards, complete);
+    }
+
+    /**
+     * Write the manifest for the given shards to the given outputDir.  It's written to 
+     * a temp file first, then moved into place, so readers never see a partial manifest.
+     */
+    public static void writeManifest(File outputDir, List shards, boolean complete) throws IOException {
+
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        manifest.put("complete", complete);
+        manifest.put("shards", shards);
+
+        File tmpFile = new File(outputDir, ManifestFileName + ".tmp");
+
+        Writer writer = new BufferedWriter( new OutputStreamWriter( Files.newOutputStream( tmpFile.toPath() ), StandardCharsets.UTF_8 ) );
+        try {
+            new JSONWriter(writer).write(manifest);
+        } finally {
+            writer.close();
+        }
+
+        Files.move( tmpFile.toPath(),
+                    new File(outputDir, ManifestFileName).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+    }
+
+}
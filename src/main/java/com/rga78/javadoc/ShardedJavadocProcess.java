@@ -0,0 +1,538 @@
+package com.rga78.javadoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.rga78.log.Log;
+import com.rga78.proc.OutputCapture;
+import com.rga78.proc.ProcessException;
+import com.rga78.proc.ProcessHelper;
+import com.rga78.proc.ProcessHelper.Stream;
+
+/**
+ * Runs javadoc over a large set of packages by splitting the packages into shards and
+ * running a separate javadoc JVM (SimpleJavadocProcess) for each shard, several at a time.
+ *
+ * Each shard writes its output to its own directory (via the doclet's -outputDir option).
+ * When all shards are done, the shard files are merged into the output directory, along
+ * with a single manifest.  If the same package was processed by more than one shard
+ * (e.g. overlapping -subpackages), only the first copy is kept.
+ *
+ *      new ShardedJavadocProcess()
+ *              .setSourcePath( new File("src-jdk7") )
+ *              .setSubpackages( Arrays.asList( "java", "javax" ) )
+ *              .setShardCount(8)
+ *              .setParallelism(4)
+ *              .setMaxHeap("2048m")
+ *              .setOutputDir( new File("out") )
+ *              .run();
+ *
+ * Note: each -subpackages entry is a single unit of work; it's never split across shards.
+ * For better balance, list the packages individually, or use setPlanShards(true), which
+ * expands the subpackages and splits the packages via ShardPlanner (balanced by source
+ * bytes, with packages whose type hierarchies depend on each other kept together).
+ */
+public class ShardedJavadocProcess {
+
+    /**
+     * The name of the per-shard output dirs, under the outputDir.
+     */
+    public static final String ShardDirPrefix = ".shard-";
+
+    private File sourcePath;
+
+    private List<String> subpackages = new ArrayList<String>();
+
+    private List<String> packages = new ArrayList<String>();
+
+    private Class<?> docletClazz = JsonDoclet.class;
+
+    private boolean quiet = false;
+
+    private List<String> docletOptions = new ArrayList<String>();
+
+    /**
+     * The number of shards to split the packages into.
+     */
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The max number of javadoc JVMs running at once.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Per-shard JVM heap settings.
+     */
+    private String initialHeap = "256m";
+
+    private String maxHeap = "2048m";
+
+    /**
+     * Use ShardPlanner to split the packages.
+     */
+    private boolean planShards = false;
+
+    /**
+     * The merged output dir.
+     */
+    private File outputDir;
+
+    /**
+     * The javadoc processes of the shards that are running, so they can all be 
+     * destroyed as soon as one shard fails.
+     */
+    protected static class LiveProcesses {
+
+        private Set<ProcessHelper> processHelpers = new HashSet<ProcessHelper>();
+
+        private boolean destroyed = false;
+
+        /**
+         * Track the given (started) process.  If destroyAll was already called, the
+         * process is destroyed right away.
+         *
+         * @return false if the process was destroyed.
+         */
+        public synchronized boolean add(ProcessHelper processHelper) {
+            if (destroyed) {
+                processHelper.getProcess().destroy();
+                return false;
+            }
+            processHelpers.add(processHelper);
+            return true;
+        }
+
+        /**
+         * Stop tracking the given (finished) process.
+         */
+        public synchronized void remove(ProcessHelper processHelper) {
+            processHelpers.remove(processHelper);
+        }
+
+        /**
+         * Destroy all tracked processes, and any that are added later.
+         */
+        public synchronized void destroyAll() {
+            destroyed = true;
+            for (ProcessHelper processHelper : processHelpers) {
+                processHelper.getProcess().destroy();
+            }
+            processHelpers.clear();
+        }
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setSourcePath(File sourcePath) {
+        this.sourcePath = sourcePath;
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setSubpackages(List<String> subpackages) {
+        this.subpackages.addAll( subpackages );
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setPackages(List<String> packages) {
+        this.packages.addAll( packages );
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setDocletClass(Class<?> docletClazz) {
+        this.docletClazz = docletClazz;
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setQuiet(boolean quiet) {
+        this.quiet = quiet;
+        return this;
+    }
+
+    /**
+     * Options passed along to each shard's doclet.  Don't include -outputDir;
+     * each shard gets its own.
+     *
+     * @return this
+     */
+    public ShardedJavadocProcess setDocletOptions(List<String> docletOptions) {
+        this.docletOptions.addAll( docletOptions );
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param initialHeap - each shard's initial heap size, e.g. "256m"
+     *
+     * @return this
+     */
+    public ShardedJavadocProcess setInitialHeap(String initialHeap) {
+        this.initialHeap = initialHeap;
+        return this;
+    }
+
+    /**
+     * @param maxHeap - each shard's max heap size, e.g. "2048m"
+     *
+     * @return this
+     */
+    public ShardedJavadocProcess setMaxHeap(String maxHeap) {
+        this.maxHeap = maxHeap;
+        return this;
+    }
+
+    /**
+     * @param planShards - if true, split the packages using ShardPlanner instead of
+     *                     chunking them in order.
+     *
+     * @return this
+     */
+    public ShardedJavadocProcess setPlanShards(boolean planShards) {
+        this.planShards = planShards;
+        return this;
+    }
+
+    /**
+     * @return this
+     */
+    public ShardedJavadocProcess setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+        return this;
+    }
+
+    /**
+     * @return the merged output dir
+     */
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * @return the output dir for the given shard
+     */
+    protected File getShardDir(int shardIndex) {
+        return new File(outputDir, ShardDirPrefix + shardIndex);
+    }
+
+    /**
+     * Split the packages and subpackages into (at most) shardCount shards.
+     *
+     * @return a SimpleJavadocProcess for each shard.
+     */
+    protected List<SimpleJavadocProcess> buildShardProcesses() throws IOException {
+
+        if (planShards) {
+            return buildPlannedShardProcesses();
+        }
+
+        // Each work unit is either a package, or "-subpackages <subpackage>".
+        List<String[]> units = new ArrayList<String[]>();
+        for (String pkg : packages) {
+            units.add( new String[] { pkg } );
+        }
+        for (String subpackage : subpackages) {
+            units.add( new String[] { "-subpackages", subpackage } );
+        }
+
+        int chunkSize = Math.max(1, (units.size() + shardCount - 1) / Math.max(1, shardCount));
+
+        List<SimpleJavadocProcess> retMe = new ArrayList<SimpleJavadocProcess>();
+
+        for (List<String[]> chunk : new ListChunker<String[]>(units, chunkSize)) {
+
+            SimpleJavadocProcess shardProcess = newShardProcess( getShardDir( retMe.size() ) );
+
+            for (String[] unit : chunk) {
+                if (unit.length == 1) {
+                    shardProcess.setPackages( Arrays.asList( unit[0] ) );
+                } else {
+                    shardProcess.setSubpackages( Arrays.asList( unit[1] ) );
+                }
+            }
+
+            retMe.add( shardProcess );
+        }
+
+        return retMe;
+    }
+
+    /**
+     * Expand the subpackages and split all packages into (at most) shardCount shards
+     * using ShardPlanner.
+     *
+     * @return a SimpleJavadocProcess for each shard.
+     */
+    protected List<SimpleJavadocProcess> buildPlannedShardProcesses() throws IOException {
+
+        ShardPlanner shardPlanner = new ShardPlanner(sourcePath);
+
+        List<String> allPackages = new ArrayList<String>(packages);
+        for (String subpackage : subpackages) {
+            allPackages.addAll( shardPlanner.expandSubpackage(subpackage) );
+        }
+
+        List<SimpleJavadocProcess> retMe = new ArrayList<SimpleJavadocProcess>();
+
+        for (List<String> shardPackages : shardPlanner.scan(allPackages).plan(shardCount)) {
+            retMe.add( newShardProcess( getShardDir( retMe.size() ) ).setPackages( shardPackages ) );
+        }
+
+        return retMe;
+    }
+
+    /**
+     * @return a new SimpleJavadocProcess for a shard that writes to the given shardDir.
+     */
+    protected SimpleJavadocProcess newShardProcess(File shardDir) {
+        return new SimpleJavadocProcess()
+                        .setSourcePath( sourcePath )
+                        .setDocletClass( docletClazz )
+                        .setQuiet( quiet )
+                        .setInitialHeap( initialHeap )
+                        .setMaxHeap( maxHeap )
+                        .setDocletOptions( docletOptions )
+                        .setDocletOptions( Arrays.asList( DocletOptions.OutputDir, shardDir.getPath() ) );
+    }
+
+    /**
+     * Build Callable work for spawning and waiting for a shard's javadoc process.  
+     * The process is tracked in liveProcesses while it runs.
+     *
+     * @return A Callable that will spawn and wait for the shard's javadoc process.
+     */
+    protected Callable<ProcessHelper> buildShardRunnable(final SimpleJavadocProcess shardProcess, final LiveProcesses liveProcesses) {
+
+        return new Callable<ProcessHelper>() {
+            public ProcessHelper call() throws Exception {
+
+                String processDescription = "javadoc shard " + shardProcess.getPackages() + shardProcess.getSubpackages() 
+                                            + " against sourcepath: " + sourcePath.getCanonicalPath();
+                Log.info(this, "run: " + processDescription);
+
+                // The shard writes to its -outputDir, so just keep stdout's stats.
+                ProcessHelper processHelper = shardProcess.buildProcessHelper()
+                                                          .setDescription(processDescription)
+                                                          .setCapture(Stream.STDOUT, OutputCapture.statsOnly());
+
+                if (!liveProcesses.add(processHelper)) {
+                    throw new InterruptedException("javadoc shard cancelled: " + processDescription);
+                }
+
+                try {
+                    return processHelper.spawnStreamReaders().waitFor();
+                } finally {
+                    liveProcesses.remove(processHelper);
+                }
+            }
+        };
+    }
+
+    /**
+     * Run javadoc for all shards, then merge the results into the outputDir.
+     *
+     * The shards are checked as they finish.  The first one that fails fails the run:
+     * the other shards' processes are destroyed and the queued shards never start.
+     *
+     * @return the merged manifest's shard entries (one per package).
+     *
+     * @throws ProcessException if any javadoc process fails.
+     */
+    public List<Map> run() throws Exception {
+
+        FileUtils.forceMkdir(outputDir);
+
+        List<SimpleJavadocProcess> shardProcesses = buildShardProcesses();
+
+        Log.info(this, "run: running " + shardProcesses.size() + " shards, " + parallelism + " at a time");
+
+        ExecutorService executorService = Executors.newFixedThreadPool( Math.max(1, Math.min(parallelism, shardProcesses.size())) );
+        CompletionService<ProcessHelper> completionService = new ExecutorCompletionService<ProcessHelper>(executorService);
+        LiveProcesses liveProcesses = new LiveProcesses();
+
+        boolean failed = true;
+        try {
+            for (SimpleJavadocProcess shardProcess : shardProcesses) {
+                completionService.submit( buildShardRunnable(shardProcess, liveProcesses) );
+            }
+
+            for (int i=0; i < shardProcesses.size(); ++i) {
+                ProcessHelper processHelper = getShardResult( completionService.take() );
+
+                if (processHelper.exitValue() != 0) {
+                    throw new ProcessException(processHelper);
+                }
+            }
+
+            failed = false;
+
+        } finally {
+            if (failed) {
+                // Destroy first: a shard interrupted by shutdownNow stops tracking its process.
+                liveProcesses.destroyAll();
+                executorService.shutdownNow();
+            } else {
+                executorService.shutdown();
+            }
+        }
+
+        return mergeShards( shardProcesses.size() );
+    }
+
+    /**
+     * @return the given (done) shard's ProcessHelper.
+     *
+     * @throws Exception the shard's failure, unwrapped from the ExecutionException.
+     */
+    protected ProcessHelper getShardResult(Future<ProcessHelper> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            throw (ee.getCause() instanceof Exception) ? (Exception) ee.getCause() : ee;
+        }
+    }
+
+    /**
+     * Move the shard files from each shard dir into the outputDir, skipping packages
+     * that have already been merged, and write the merged manifest.  The shard dirs
+     * are deleted.
+     *
+     * @return the merged manifest's shard entries.
+     */
+    protected List<Map> mergeShards(int shardDirCount) throws IOException {
+
+        JSONArray mergedShards = new JSONArray();
+        Set<Object> mergedPackages = new HashSet<Object>();
+
+        for (int i=0; i < shardDirCount; ++i) {
+
+            File shardDir = getShardDir(i);
+
+            for (Map shard : readManifest(shardDir)) {
+
+                if (mergedPackages.add( shard.get("package") )) {
+                    String fileName = (String) shard.get("file");
+
+                    moveFile( new File(shardDir, fileName), new File(outputDir, fileName) );
+
+                    File indexFile = new File(shardDir, fileName + ".idx");
+                    if (indexFile.exists()) {
+                        moveFile( indexFile, new File(outputDir, indexFile.getName()) );
+                    }
+
+                    mergedShards.add(shard);
+                } else {
+                    Log.info(this, "mergeShards: skipping duplicate package " + shard.get("package") + " from " + shardDir);
+                }
+            }
+
+            FileUtils.deleteDirectory(shardDir);
+        }
+
+        ShardedDocumentSink.writeManifest(outputDir, mergedShards, true);
+
+        return mergedShards;
+    }
+
+    /**
+     * Copy the merged shard files, in manifest order, to the given stream.  The result
+     * is a single newline-delimited stream of all documents (or a multi-member gzip
+     * stream, if the shards are gzipped).
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (Map shard : readManifest(outputDir)) {
+            InputStream inputStream = new FileInputStream( new File(outputDir, (String) shard.get("file")) );
+            try {
+                IOUtils.copy(inputStream, outputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * @return the shard entries from the manifest in the given dir.
+     */
+    protected List<Map> readManifest(File dir) throws IOException {
+
+        Reader reader = new InputStreamReader( new FileInputStream( new File(dir, ShardedDocumentSink.ManifestFileName) ), StandardCharsets.UTF_8 );
+        try {
+            JSONObject manifest = (JSONObject) new JSONParser().parse(reader);
+
+            if (!Boolean.TRUE.equals(manifest.get("complete"))) {
+                throw new IOException("Incomplete manifest in " + dir);
+            }
+
+            return (List<Map>) manifest.get("shards");
+
+        } catch (ParseException pe) {
+            throw new IOException("Could not parse manifest in " + dir, pe);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Move the given file, replacing the target if it exists.
+     */
+    protected void moveFile(File from, File to) throws IOException {
+        Files.move( from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+}
@@ -3,19 +3,25 @@ package com.rga78.javadoc;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONObject;
 
 import com.rga78.log.Log;
+import com.rga78.proc.OutputCapture;
 import com.rga78.proc.ProcessException;
 import com.rga78.proc.ProcessHelper;
+import com.rga78.proc.ProcessHelper.Stream;
 
 /**
  * Runs javadoc using our custom doclet.  
@@ -25,14 +31,35 @@ import com.rga78.proc.ProcessHelper;
  * javadoc \
  *      -doclet com.rga78.javadoc.JsonDoclet \
  *      -docletpath "target/classes;$dp" \
- *      -J-Xms1024m \
- *      -J-Xmx4096m \
+ *      -J-Xms1024m \          (see setInitialHeap)
+ *      -J-Xmx4096m \          (see setMaxHeap)
  *      -sourcepath /fox/tmp/javadoc/src-jdk7   \
  *      [ -subpackages javax  | <package-list> ]
  *
+ * If the command gets longer than the argFileThreshold (see setArgFileThreshold), 
+ * everything but the -J options is written to an @argfile instead, so a whole library 
+ * (any number of packages or source files) can run in a single javadoc invocation:
+ *
+ *      javadoc -J-Xms1024m -J-Xmx4096m @/tmp/javadoc-1234.args
+ *
+ * The @argfile belongs to the process it was written for, and is deleted when that
+ * process ends (see ProcessHelper.deleteWhenDone).
+ *
+ * Use runInProcess(DocumentSink) to run javadoc in this JVM instead, via the javadoc
+ * tool API.  The doclet hands its documents straight to the given DocumentSink, so
+ * there's no JVM startup and no JSON round-trip through stdout.  That's a big win
+ * for small libraries, where JVM startup is most of the run time.  The heap settings
+ * don't apply (the run shares this JVM's heap).
+ *
  */
 public class SimpleJavadocProcess {
 
+    /**
+     * Default max command length (in chars) before switching to an @argfile.
+     * Stays well under the Windows limit (32K).
+     */
+    public static final int DefaultArgFileThreshold = 8 * 1024;
+
     /**
      * The base package dir.  This dir plus all subdirs are supplied as packages to
      * the javadoc command.
@@ -59,6 +86,11 @@ public class SimpleJavadocProcess {
      */
     private List<String> packages = new ArrayList<String>();
     
+    /**
+     * List of .java files to process.
+     */
+    private List<File> sourceFiles = new ArrayList<File>();
+
     /**
      * The doclet class
      */
@@ -69,6 +101,55 @@ public class SimpleJavadocProcess {
      */
     private boolean quiet = false;
 
+    /**
+     * Custom options passed along to the doclet (see DocletOptions).
+     */
+    private List<String> docletOptions = new ArrayList<String>();
+
+    /**
+     * The javadoc JVM's initial heap size (-J-Xms).
+     */
+    private String initialHeap = "1024m";
+
+    /**
+     * The javadoc JVM's max heap size (-J-Xmx).
+     */
+    private String maxHeap = "4096m";
+
+    /**
+     * Max command length (in chars) before switching to an @argfile.
+     */
+    private int argFileThreshold = DefaultArgFileThreshold;
+
+    /**
+     * A javadoc command, plus the @argfile it refers to, if any (see useArgFileIfNeeded).
+     */
+    protected static class JavadocCommand {
+
+        List<String> command;
+
+        File argFile;
+
+        JavadocCommand(List<String> command, File argFile) {
+            this.command = command;
+            this.argFile = argFile;
+        }
+
+        /**
+         * @return the command line.
+         */
+        public List<String> getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the @argfile, or null if the whole command is on the command line.
+         */
+        public File getArgFile() {
+            return argFile;
+        }
+    }
+
     /**
      * @return the classpath (-docletpath) for the custom doclet.
      */
@@ -153,6 +234,21 @@ public class SimpleJavadocProcess {
         return packages;
     }
 
+    /**
+     * @return this
+     */
+    public SimpleJavadocProcess setSourceFiles(List<File> sourceFiles) {
+        this.sourceFiles.addAll( sourceFiles );
+        return this;
+    }
+
+    /**
+     * @return the list of source files
+     */
+    public List<File> getSourceFiles() {
+        return sourceFiles;
+    }
+
     /**
      * @return this
      */
@@ -176,6 +272,73 @@ public class SimpleJavadocProcess {
         return this;
     }
     
+    /**
+     * @return this
+     */
+    public SimpleJavadocProcess setDocletOptions(List<String> docletOptions) {
+        this.docletOptions.addAll( docletOptions );
+        return this;
+    }
+
+    /**
+     * @return the list of custom doclet options
+     */
+    public List<String> getDocletOptions() {
+        return docletOptions;
+    }
+
+    /**
+     * @param initialHeap - the javadoc JVM's initial heap size, e.g. "1024m"
+     *
+     * @return this
+     */
+    public SimpleJavadocProcess setInitialHeap(String initialHeap) {
+        this.initialHeap = initialHeap;
+        return this;
+    }
+
+    /**
+     * @return the javadoc JVM's initial heap size
+     */
+    public String getInitialHeap() {
+        return initialHeap;
+    }
+
+    /**
+     * @param maxHeap - the javadoc JVM's max heap size, e.g. "4096m"
+     *
+     * @return this
+     */
+    public SimpleJavadocProcess setMaxHeap(String maxHeap) {
+        this.maxHeap = maxHeap;
+        return this;
+    }
+
+    /**
+     * @return the javadoc JVM's max heap size
+     */
+    public String getMaxHeap() {
+        return maxHeap;
+    }
+
+    /**
+     * @param argFileThreshold - max command length (in chars) before the args are
+     *                           written to an @argfile.  0 to always use an @argfile.
+     *
+     * @return this
+     */
+    public SimpleJavadocProcess setArgFileThreshold(int argFileThreshold) {
+        this.argFileThreshold = argFileThreshold;
+        return this;
+    }
+
+    /**
+     * @return the max command length before switching to an @argfile.
+     */
+    public int getArgFileThreshold() {
+        return argFileThreshold;
+    }
+
     /**
      * @return "-quiet" if set, otherwise ""
      */
@@ -199,9 +362,16 @@ public class SimpleJavadocProcess {
                     String processDescription = "javadoc against sourcepath: " +  getSourcePath().getCanonicalPath();
                     Log.info(this, "run: " + processDescription);
                     
-                    processHelper = buildProcessHelper().setDescription(processDescription)
-                                                        .spawnStreamReaders()
-                                                        .waitFor();
+                    processHelper = buildProcessHelper().setDescription(processDescription);
+
+                    // With -outputDir the JSON doesn't go to stdout, so just keep its stats.
+                    // Otherwise the caller reads the JSON via getStdout.
+                    if (getDocletOptions().contains( DocletOptions.OutputDir )) {
+                        processHelper.setCapture(Stream.STDOUT, OutputCapture.statsOnly());
+                    }
+
+                    processHelper.spawnStreamReaders().waitFor();
+                    Log.info(this, "run: stdout: " + processHelper.getCapture(Stream.STDOUT));
 
                     if (processHelper.exitValue() != 0) {
                         Log.error(this, "run: " + new ProcessException( processHelper ));
@@ -224,22 +394,78 @@ public class SimpleJavadocProcess {
     }
     
     /**
-     * @return a ProcessHelper wrapped around the javadoc process.
+     * @return a ProcessHelper wrapped around the javadoc process.  The process's
+     *         @argfile, if any, is deleted when the process ends.
      */
     public ProcessHelper buildProcessHelper() throws IOException {
-        return new ProcessHelper( buildJavadocProcess() );
+
+        JavadocCommand javadocCommand = useArgFileIfNeeded( buildCommand() );
+
+        Process process;
+        try {
+            process = new ProcessBuilder( javadocCommand.getCommand() ).start();
+        } catch (IOException ioe) {
+            FileUtils.deleteQuietly( javadocCommand.getArgFile() );
+            throw ioe;
+        }
+
+        ProcessHelper retMe = new ProcessHelper( process );
+
+        if (javadocCommand.getArgFile() != null) {
+            retMe.deleteWhenDone( javadocCommand.getArgFile() );
+        }
+
+        return retMe;
     }
 
     /**
-     *
-     * @param javaFileNames The list of java files to process
-     * 
-     * @return the javadoc Process
+     * @return the given command as is, if it's within the argFileThreshold.  Otherwise 
+     *         the command with all args except the -J options moved to a new @argfile.
+     *         The caller owns the @argfile.
+     */
+    protected JavadocCommand useArgFileIfNeeded(List<String> command) throws IOException {
+
+        int commandLength = 0;
+        for (String arg : command) {
+            commandLength += arg.length() + 1;
+        }
+
+        if (commandLength <= argFileThreshold) {
+            return new JavadocCommand(command, null);
+        }
+
+        List<String> retMe = new ArrayList<String>();
+        List<String> fileArgs = new ArrayList<String>();
+
+        retMe.add( command.get(0) );
+
+        for (String arg : command.subList(1, command.size())) {
+            if (arg.startsWith("-J")) {
+                // JVM options must be on the command line.
+                retMe.add( arg );
+            } else if (arg.length() > 0) {
+                fileArgs.add( quoteArgFileArg(arg) );
+            }
+        }
+
+        File argFile = File.createTempFile("javadoc-", ".args");
+        argFile.deleteOnExit();
+        FileUtils.writeLines( argFile, fileArgs );
+
+        Log.info(this, "useArgFileIfNeeded: command length " + commandLength + " > " + argFileThreshold + ", using @" + argFile);
+
+        retMe.add( "@" + argFile.getCanonicalPath() );
+        return new JavadocCommand(retMe, argFile);
+    }
+
+    /**
+     * @return the given arg, double-quoted for a javadoc @argfile (which treats
+     *         whitespace, quotes, backslashes and '#' specially).
      */
-    protected Process buildJavadocProcess() throws IOException {
-        return new ProcessBuilder( buildCommand() ).start();
+    protected static String quoteArgFileArg(String arg) {
+        return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
     }
-    
+
     /**
      * @return the javadoc command
      */
@@ -253,18 +479,173 @@ public class SimpleJavadocProcess {
                                                       "-doclet",
                                                       getDocletClass().getCanonicalName(),
                                                       getQuietOption(),
-                                                      "-J-Xms1024m",
-                                                      "-J-Xmx4096m",
-                                                      "-sourcepath",
-                                                      getSourcePath().getCanonicalPath()
+                                                      "-J-Xms" + getInitialHeap(),
+                                                      "-J-Xmx" + getMaxHeap()
                                                     } ) );
 
-        command.addAll( buildSubpackagesCommandArgs() );
-        command.addAll( getPackages() );
+        command.addAll( buildJavadocArgs() );
         
         return command;
     }
-    
+
+    /**
+     * @return the javadoc args common to forked and in-process runs:
+     *         -sourcepath, doclet options, -subpackages, packages and source files.
+     */
+    protected List<String> buildJavadocArgs() throws IOException {
+
+        List<String> retMe = new ArrayList<String>();
+
+        retMe.add( "-sourcepath" );
+        retMe.add( getSourcePath().getCanonicalPath() );
+        retMe.addAll( getDocletOptions() );
+        retMe.addAll( buildSubpackagesCommandArgs() );
+        retMe.addAll( getPackages() );
+        retMe.addAll( mapToFileNames( getSourceFiles() ) );
+
+        return retMe;
+    }
+
+    /**
+     * @return the args for an in-process run.  The doclet and its classloader are
+     *         passed to javadoc directly (see runInProcess), and there are no JVM options.
+     */
+    protected List<String> buildInProcessArgs() throws IOException {
+
+        List<String> retMe = new ArrayList<String>();
+
+        if (quiet) {
+            retMe.add( getQuietOption() );
+        }
+        retMe.addAll( buildJavadocArgs() );
+
+        return retMe;
+    }
+
+    /**
+     * Run javadoc in this JVM.  The doclet is loaded from the doclet class's own
+     * classloader, and (for JsonDoclet) writes its documents to the given sink,
+     * on this thread.  The sink is closed at the end of the run.
+     *
+     * javadoc's error, warning and notice messages are written to stderr.
+     *
+     * @return javadoc's exit code (0 for success).
+     */
+    public int runInProcess(DocumentSink documentSink) throws IOException {
+
+        JsonDoclet.setInProcessDocumentSink( documentSink );
+        try {
+            return executeInProcess();
+        } finally {
+            JsonDoclet.setInProcessDocumentSink( null );
+        }
+    }
+
+    /**
+     * Run javadoc in this JVM.  JsonDoclet writes its usual output (according to the
+     * doclet options) to the given stream instead of stdout.  If -outputDir is one of 
+     * the doclet options, the output goes there instead.  The stream is not closed.
+     *
+     * @return javadoc's exit code (0 for success).
+     */
+    public int runInProcess(OutputStream outputStream) throws IOException {
+
+        JsonDoclet.setInProcessOutputStream( outputStream );
+        try {
+            return executeInProcess();
+        } finally {
+            JsonDoclet.setInProcessOutputStream( null );
+        }
+    }
+
+    /**
+     * Call the javadoc tool API on this thread.  
+     *
+     * @return javadoc's exit code
+     */
+    protected int executeInProcess() throws IOException {
+
+        List<String> args = buildInProcessArgs();
+
+        Log.info(this, "runInProcess: javadoc against sourcepath: " + getSourcePath().getCanonicalPath());
+
+        PrintWriter messageWriter = new PrintWriter(System.err, true);
+        try {
+            return com.sun.tools.javadoc.Main.execute( "javadoc",
+                                                       messageWriter,
+                                                       messageWriter,
+                                                       messageWriter,
+                                                       getDocletClass().getName(),
+                                                       getDocletClass().getClassLoader(),
+                                                       args.toArray( new String[args.size()] ) );
+        } finally {
+            messageWriter.flush();
+        }
+    }
+
+    /**
+     * @return this process's settings as a JavadocDaemon job request.
+     */
+    public JSONObject buildJobRequest() throws IOException {
+        JSONObject retMe = new JSONObject();
+        retMe.put( "sourcePath", getSourcePath().getCanonicalPath() );
+        retMe.put( "packages", new ArrayList<String>( getPackages() ) );
+        retMe.put( "subpackages", new ArrayList<String>( getSubpackages() ) );
+        retMe.put( "docletOptions", new ArrayList<String>( getDocletOptions() ) );
+        retMe.put( "sourceFiles", mapToFileNames( getSourceFiles() ) );
+        retMe.put( "quiet", quiet );
+        return retMe;
+    }
+
+    /**
+     * @return a SimpleJavadocProcess for the given JavadocDaemon job request.
+     */
+    public static SimpleJavadocProcess fromJobRequest(Map request) {
+
+        SimpleJavadocProcess retMe = new SimpleJavadocProcess()
+                                            .setSourcePath( new File( (String) request.get("sourcePath") ) )
+                                            .setQuiet( Boolean.TRUE.equals( request.get("quiet") ) );
+
+        if (request.get("packages") != null) {
+            retMe.setPackages( (List<String>) request.get("packages") );
+        }
+        if (request.get("subpackages") != null) {
+            retMe.setSubpackages( (List<String>) request.get("subpackages") );
+        }
+        if (request.get("docletOptions") != null) {
+            retMe.setDocletOptions( (List<String>) request.get("docletOptions") );
+        }
+        if (request.get("sourceFiles") != null) {
+            for (String sourceFile : (List<String>) request.get("sourceFiles")) {
+                retMe.setSourceFiles( Arrays.asList( new File(sourceFile) ) );
+            }
+        }
+
+        return retMe;
+    }
+
+    /**
+     * Run javadoc on the JavadocDaemon listening on the given (local) port, instead
+     * of spawning a new JVM.  The doclet's output is written to the given stream
+     * (unless -outputDir is one of the doclet options).  The heap settings don't apply.
+     *
+     * @param token - the daemon's token (see JavadocDaemon.getToken).
+     *
+     * @return the job status from the daemon (exitCode, timings).
+     */
+    public Map runOnDaemon(int port, String token, OutputStream outputStream) throws IOException {
+        return JavadocDaemon.submit( port, token, buildJobRequest(), outputStream );
+    }
+
+    /**
+     * Run javadoc on the JavadocDaemon listening on the given (local) port, with the
+     * token from the daemon's token file (see JavadocDaemon.getTokenFile).
+     *
+     * @return the job status from the daemon (exitCode, timings).
+     */
+    public Map runOnDaemon(int port, OutputStream outputStream) throws IOException {
+        return runOnDaemon( port, JavadocDaemon.readTokenFile( JavadocDaemon.getTokenFile(port) ), outputStream );
+    }
 
     /**
      * @return -subpackages <subpkg1> -subpackages <subpkg2> ...
@@ -0,0 +1,95 @@
+package com.rga78.javadoc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Symbol table for the -refs output mode.
+ *
+ * Each distinct stub (class, method, field, package, type, ...) is defined once in
+ * the symbol table, keyed by a stub id (e.g. "class:java.lang.String",
+ * "method:java.lang.String.substring(int, int)").  Documents refer to the stub via
+ * a reference object:
+ *
+ *      { "$ref": "class:java.lang.String" }
+ *
+ * Newly defined symbols are queued up and written to the output as symbol documents
+ * before the first document that refers to them:
+ *
+ *      { "metaType": "symbol", "$id": "class:java.lang.String", "stub": { ... } }
+ *
+ */
+public class SymbolTable {
+
+    /**
+     * The reference objects for all symbols defined so far, keyed by stub id.
+     */
+    private Map<String, JSONObject> refs = new HashMap<String, JSONObject>();
+
+    /**
+     * Symbol documents for newly defined symbols that haven't been written yet.
+     */
+    private List<Map> pendingSymbols = new ArrayList<Map>();
+
+    /**
+     * @return the reference object for the given stub id, or null if it hasn't been defined.
+     */
+    public JSONObject lookupRef(String stubId) {
+        return refs.get(stubId);
+    }
+
+    /**
+     * Define the given stub.  The stub is queued up as a pending symbol document.
+     *
+     * @return the reference object for the stub, or null if the stub is null.
+     */
+    public JSONObject define(String stubId, JSONObject stub) {
+
+        if (stub == null) {
+            return null;
+        }
+
+        JSONObject ref = new JSONObject();
+        ref.put("$ref", stubId);
+        refs.put(stubId, ref);
+
+        JSONObject symbol = new JSONObject();
+        symbol.put("metaType", "symbol");
+        symbol.put("$id", stubId);
+        symbol.put("stub", stub);
+        pendingSymbols.add(symbol);
+
+        return ref;
+    }
+
+    /**
+     * @return the symbol documents defined since the last call.  They must be
+     *         written before any document that refers to them.
+     */
+    public List<Map> takePendingSymbols() {
+        List<Map> retMe = pendingSymbols;
+        pendingSymbols = new ArrayList<Map>();
+        return retMe;
+    }
+
+    /**
+     * Forget all symbols.  Subsequent references cause the stubs to be defined again.
+     * Used to make each output shard self-contained.
+     */
+    public void clear() {
+        refs.clear();
+        pendingSymbols.clear();
+    }
+
+    /**
+     * @return the number of symbols defined.
+     */
+    public int size() {
+        return refs.size();
+    }
+
+}
@@ -1,17 +1,19 @@
 
 package com.rga78.json;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.json.simple.JSONValue;
 
 /**
  * Pretty-print JSON.
  * 
  * Usage: new JSONTrace(Map or List).toString()
  * or: JSONTrace.prettyPrint(Map or List).
+ *
+ * Note: the formatting is done by JSONWriter.  Use JSONWriter directly to stream
+ * large JSON documents without building them up in a String.
  * 
  * TODO: comparators for ordering keys
  */
@@ -98,154 +100,16 @@ public class JSONTrace {
      * Pretty print the JSON provided to the CTOR.
      */
     public String toString() {
-        if (map != null) {
-            return prettyPrintMap(map);
-        } else {
-            return prettyPrintList(list);
-        }
-    }
-
-
-    /**
-     * Pretty print the given JSON object, with nice indenting and such.
-     *
-     * @return String of pretty printed JSON data.
-     */
-    private String prettyPrintMap(Map jsonMap) {
-        return prettyPrintMap(jsonMap, 0);
-    }
-
-
-    /**
-     * Pretty print the given JSON object, with nice indenting and such.
-     *
-     * @return String of pretty printed JSON data.
-     */
-    private String prettyPrintMap(Map jsonMap, int indentLevel) {
-
-        if (jsonMap == null) {
-            return "null";
-        } else if (jsonMap.isEmpty()) {
-            return "{}";
-        }
-
-        StringBuffer sb = new StringBuffer();
-        sb.append("{" + newline);
-
-        String objTab = "";
-        String attrTab = tab;
-        for (int i=0; i < indentLevel; ++i) {
-            objTab += tab;
-            attrTab += tab;
+        StringWriter sw = new StringWriter();
+        try {
+            new JSONWriter(sw).setDelims(tab, newline).write( (map != null) ? map : list );
+        } catch (IOException ioe) {
+            // StringWriter doesn't throw IOExceptions.
+            throw new RuntimeException(ioe);
         }
-
-        Set keys = getKeySet(jsonMap);
-
-        String delim = "";
-        for (Object key : keys) {
-
-            sb.append(delim);
-            sb.append(attrTab + "\"" + String.valueOf(key) + "\": ");  // Print key.
-
-            Object value = jsonMap.get(key);
-
-            sb.append(prettyPrintValue(value,indentLevel));
-            delim = "," + newline;
-        }
-
-        sb.append(newline + objTab + "}");
-
-        return sb.toString();
+        return sw.toString();
     }
 
-
-    /**
-     * Specially-sort the Map keys if it's a Node type.
-     */
-    private Set getKeySet(Map jsonMap) {
-        return jsonMap.keySet();
-    }
-
-
-    /**
-     * Pretty print the given JSON array, with nice indenting and such.
-     *
-     * @return String of pretty printed JSON data.
-     */
-    private String prettyPrintList(List jsonList) {
-        return prettyPrintList(jsonList, 0);
-    }
-
-
-    /**
-     * Pretty print the given JSON list, with nice indenting and such.
-     *
-     * @return String of pretty printed JSON data.
-     */
-    private String prettyPrintList(List jsonList, int indentLevel) {
-
-        if (jsonList == null) {
-            return "null";
-        } else if (jsonList.isEmpty()) {
-            return "[]";
-        }
-
-        StringBuffer sb = new StringBuffer();
-        sb.append("[" + newline);
-
-        String objTab = "";
-        String attrTab = tab;
-        for (int i=0; i < indentLevel; ++i) {
-            objTab += tab;
-            attrTab += tab;
-        }
-
-        String delim = "" ;
-        for (Object value : jsonList) {
-
-            sb.append(delim);
-            sb.append(attrTab);
-
-            sb.append(prettyPrintValue(value,indentLevel));
-
-            delim = "," + newline;
-        }
-
-        sb.append(newline + objTab + "]");
-
-        return sb.toString();
-    }
-
-
-    /**
-     * Helper for prettyPrint methods.
-     *
-     * @return String of pretty printed JSON value.
-     */
-    private String prettyPrintValue(Object value, int indentLevel) {
-        if (value instanceof Map) {
-            return prettyPrintMap((Map)value,indentLevel+1);
-        } else if (value instanceof List) {
-            return prettyPrintList((List)value,indentLevel+1);
-        } else if (value instanceof String) {
-            return "\"" + escape((String)value) + "\"";
-        } else {
-            return String.valueOf(value);
-        }
-    }
-    
-    /**
-     * TODO: use StringEscapeUtils (commons.lang3)?
-     * 
-     * @return the given string with quotes and control chars escaped.
-     */
-    private String escape(String s) {
-        // return s.replace("\\", "\\\\").replace("\"", "\\\"");
-        return JSONValue.escape(s);
-    }
-    
-    
-
 }
 
 
@@ -0,0 +1,334 @@
+package com.rga78.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer.
+ *
+ * Walks a JSON model (nested Maps/Lists of Strings, Numbers, Booleans) and writes
+ * the tokens directly to the given Writer, without building an intermediate String
+ * for each object.  The output is formatted exactly like JSONTrace.
+ *
+ * Usage: new JSONWriter(writer).write(Map or List).
+ * or: new JSONWriter(writer).setCompact(true).write(Map or List), for single-line output.
+ *
+ * SharedJSONObjects are encoded once and the encoded text is reused thereafter,
+ * as long as the output doesn't depend on the indent level (i.e. compact mode).
+ *
+ * Note: the writer is not flushed.  Wrap the underlying stream in a BufferedWriter
+ * and flush/close it when you're done.
+ */
+public class JSONWriter {
+
+    /**
+     * The target writer.
+     */
+    private Writer writer;
+
+    private String tab = " ";
+
+    private String newline = "\n";
+
+    /**
+     * Written between an object's key and its value.
+     */
+    private String keySeparator = "\": ";
+
+    /**
+     * If true, object entries with null or empty values are not written.
+     */
+    private boolean pruneEmpty = false;
+
+    /**
+     * Cached indentation strings, indexed by indent level.
+     */
+    private List<String> indents = new ArrayList<String>();
+
+    /**
+     * CTOR.
+     */
+    public JSONWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Set the delimeters to use when pretty printing.
+     *
+     * @return this
+     */
+    public JSONWriter setDelims(String tab, String newline) {
+        this.tab = tab;
+        this.newline = newline;
+        this.indents.clear();
+        return this;
+    }
+
+    /**
+     * Compact mode writes no indentation or newlines and no space after the ':'.
+     * Each JSON value is written on a single line (newlines within strings are escaped).
+     *
+     * @return this
+     */
+    public JSONWriter setCompact(boolean compact) {
+        this.keySeparator = (compact) ? "\":" : "\": ";
+        return (compact) ? setDelims("", "") : setDelims(" ", "\n");
+    }
+
+    /**
+     * Prune mode skips object entries whose value is null, an empty array, or an
+     * empty object (including objects whose entries would all be pruned).  The
+     * model itself is not modified.  Array elements are never skipped, since 
+     * their position is meaningful.
+     *
+     * @return this
+     */
+    public JSONWriter setPruneEmpty(boolean pruneEmpty) {
+        this.pruneEmpty = pruneEmpty;
+        return this;
+    }
+
+    /**
+     * @return the target writer.
+     */
+    public Writer getWriter() {
+        return writer;
+    }
+
+    /**
+     * Write the given JSON value (Map, List, String, or other) to the writer.
+     *
+     * @return this
+     */
+    public JSONWriter write(Object value) throws IOException {
+        writeValue(value, -1);
+        return this;
+    }
+
+    /**
+     * Write the given raw text to the writer (e.g. a record delimiter).
+     *
+     * @return this
+     */
+    public JSONWriter writeRaw(String s) throws IOException {
+        writer.write(s);
+        return this;
+    }
+
+    /**
+     * Write the given JSON object, with nice indenting and such.
+     */
+    protected void writeMap(Map jsonMap, int indentLevel) throws IOException {
+
+        String attrTab = getIndent(indentLevel + 1);
+
+        boolean first = true;
+        for (Object entryObj : jsonMap.entrySet()) {
+            Map.Entry entry = (Map.Entry) entryObj;
+
+            if (pruneEmpty && isEmptyValue(entry.getValue())) {
+                continue;
+            }
+
+            if (first) {
+                writer.write("{");
+            } else {
+                writer.write(",");
+            }
+            writer.write(newline);
+            first = false;
+
+            writer.write(attrTab);
+            writer.write("\"");
+            writer.write(String.valueOf(entry.getKey()));
+            writer.write(keySeparator);
+
+            writeValue(entry.getValue(), indentLevel);
+        }
+
+        if (first) {
+            // Nothing written.
+            writer.write("{}");
+            return;
+        }
+
+        writer.write(newline);
+        writer.write(getIndent(indentLevel));
+        writer.write("}");
+    }
+
+    /**
+     * @return true if the given value is null, an empty List, or a Map
+     *         that contains only empty values.
+     */
+    protected boolean isEmptyValue(Object value) {
+        if (value == null) {
+            return true;
+        } else if (value instanceof List) {
+            return ((List) value).isEmpty();
+        } else if (value instanceof Map) {
+            for (Object mapValue : ((Map) value).values()) {
+                if (!isEmptyValue(mapValue)) {
+                    return false;
+                }
+            }
+            return true;
+        } 
+        return false;
+    }
+
+    /**
+     * Write the given JSON list, with nice indenting and such.
+     */
+    protected void writeList(List jsonList, int indentLevel) throws IOException {
+
+        if (jsonList.isEmpty()) {
+            writer.write("[]");
+            return;
+        }
+
+        writer.write("[");
+        writer.write(newline);
+
+        String attrTab = getIndent(indentLevel + 1);
+
+        boolean first = true;
+        for (Object value : jsonList) {
+
+            if (!first) {
+                writer.write(",");
+                writer.write(newline);
+            }
+            first = false;
+
+            writer.write(attrTab);
+            writeValue(value, indentLevel);
+        }
+
+        writer.write(newline);
+        writer.write(getIndent(indentLevel));
+        writer.write("]");
+    }
+
+    /**
+     * Write the given JSON value.  Nested Maps/Lists are indented one level
+     * deeper than the given indentLevel.
+     */
+    protected void writeValue(Object value, int indentLevel) throws IOException {
+        if (value instanceof SharedJSONObject && getStyle() != null) {
+            writeSharedMap((SharedJSONObject)value, indentLevel+1);
+        } else if (value instanceof Map) {
+            writeMap((Map)value, indentLevel+1);
+        } else if (value instanceof List) {
+            writeList((List)value, indentLevel+1);
+        } else if (value instanceof String) {
+            writer.write("\"");
+            writeEscaped((String)value);
+            writer.write("\"");
+        } else {
+            writer.write(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Write the given shared JSON object, using its cached encoding if it has one
+     * for the current style.  Otherwise encode it and cache the encoding.
+     */
+    protected void writeSharedMap(SharedJSONObject jsonMap, int indentLevel) throws IOException {
+
+        String style = getStyle();
+        String encoded = jsonMap.getEncoding(style);
+
+        if (encoded == null) {
+            Writer target = writer;
+            StringWriter stringWriter = new StringWriter();
+
+            writer = stringWriter;
+            try {
+                writeMap(jsonMap, indentLevel);
+            } finally {
+                writer = target;
+            }
+
+            encoded = stringWriter.toString();
+            jsonMap.setEncoding(style, encoded);
+        }
+
+        writer.write(encoded);
+    }
+
+    /**
+     * @return a key identifying the current output style, for caching encoded
+     *         SharedJSONObjects; or null if the encoding depends on the indent
+     *         level and therefore can't be cached.
+     */
+    protected String getStyle() {
+        if (tab.length() > 0 || newline.length() > 0) {
+            return null;
+        }
+        return keySeparator + ((pruneEmpty) ? "|prune" : "");
+    }
+
+    /**
+     * @return the indentation string for the given level.
+     */
+    protected String getIndent(int indentLevel) {
+        while (indents.size() <= indentLevel) {
+            String prev = (indents.isEmpty()) ? null : indents.get(indents.size() - 1);
+            indents.add( (prev == null) ? "" : prev + tab );
+        }
+        return indents.get(indentLevel);
+    }
+
+    /**
+     * Write the given string with quotes and control chars escaped.
+     *
+     * Note: escapes the same chars as JSONValue.escape, but writes directly
+     *       to the writer instead of building a new String.
+     */
+    protected void writeEscaped(String s) throws IOException {
+        int len = s.length();
+        int start = 0;      // start of the current run of unescaped chars
+
+        for (int i=0; i < len; ++i) {
+            char ch = s.charAt(i);
+            String escaped = escape(ch);
+
+            if (escaped != null) {
+                writer.write(s, start, i - start);
+                writer.write(escaped);
+                start = i + 1;
+            }
+        }
+
+        writer.write(s, start, len - start);
+    }
+
+    /**
+     * @return the escape sequence for the given char, or null if it doesn't need escaping.
+     */
+    protected String escape(char ch) {
+        switch (ch) {
+            case '"': return "\\\"";
+            case '\\': return "\\\\";
+            case '\b': return "\\b";
+            case '\f': return "\\f";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\t': return "\\t";
+            case '/': return "\\/";
+            default:
+                // Reference: http://www.unicode.org/versions/Unicode5.1.0/
+                if (ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                    String hex = Integer.toHexString(ch).toUpperCase();
+                    return "\\u" + "0000".substring(hex.length()) + hex;
+                }
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.rga78.json;
+
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A JSONObject that's shared among many models (e.g. a cached type), and therefore
+ * must not be modified once it's been built.
+ *
+ * Call freeze() after populating the object.  Subsequent calls to put, putAll,
+ * remove, or clear throw UnsupportedOperationException.  Callers that need to add
+ * to a shared object must copy it first.
+ *
+ * Since the content never changes, its encoded form never changes either.  JSONWriter
+ * caches the encoded form here (see JSONWriter.writeSharedMap), so the object is
+ * only serialized once per output style, no matter how many times it's written.
+ */
+public class SharedJSONObject extends JSONObject {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The encoded form, for a given output style.
+     */
+    private static class Encoding {
+
+        final String style;
+        final String text;
+
+        Encoding(String style, String text) {
+            this.style = style;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Set by freeze().
+     */
+    private volatile boolean frozen = false;
+
+    /**
+     * The most recently cached encoding.
+     */
+    private volatile Encoding encoding;
+
+    /**
+     * Make this object read-only.
+     *
+     * @return this
+     */
+    public SharedJSONObject freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * @return true if this object has been frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return the cached encoding of this object for the given output style, or null.
+     */
+    public String getEncoding(String style) {
+        Encoding e = encoding;
+        return (e != null && e.style.equals(style)) ? e.text : null;
+    }
+
+    /**
+     * Cache the encoding of this object for the given output style.  Only frozen
+     * objects are cached.
+     */
+    public void setEncoding(String style, String text) {
+        if (frozen) {
+            encoding = new Encoding(style, text);
+        }
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        checkNotFrozen();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map map) {
+        checkNotFrozen();
+        super.putAll(map);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkNotFrozen();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        checkNotFrozen();
+        super.clear();
+    }
+
+    /**
+     * @throws UnsupportedOperationException if this object is frozen.
+     */
+    protected void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("SharedJSONObject is frozen; copy it before modifying");
+        }
+    }
+
+}
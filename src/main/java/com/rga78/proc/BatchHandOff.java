@@ -0,0 +1,306 @@
+package com.rga78.proc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.rga78.log.Log;
+
+/**
+ * Hands off batches of process output (lines or byte chunks) from ProcessHelper's 
+ * reader thread to a single listener (LineBatchListener or ByteChunkListener), which
+ * is called on its own dispatch thread (see run).
+ *
+ * Batches are queued in memory, up to the given capacity.  When the queue is full,
+ * the Policy decides what happens to the next batch:
+ *
+ *      BLOCK - the reader waits for room (the listener sets the pace).
+ *      DROP  - the batch is dropped (and counted, see getDroppedCount).
+ *      SPILL - the batch is written to a temp file, and read back once the listener
+ *              catches up.  Order is preserved: once a batch is spilled, the following
+ *              batches are spilled too until the listener has caught up.
+ *
+ * With DROP or SPILL the reader never waits on the listener.
+ */
+public class BatchHandOff implements Runnable {
+
+    public enum Policy {
+        BLOCK,
+        DROP,
+        SPILL;
+    }
+
+    /**
+     * LineBatchListener or ByteChunkListener.
+     */
+    private Object listener;
+
+    private int capacity;
+
+    private Policy policy;
+
+    /**
+     * The in-memory queue.  Batches are List<String> or byte[].
+     */
+    private LinkedList<Object> queue = new LinkedList<Object>();
+
+    /**
+     * The spill file (SPILL policy), created on first use.
+     */
+    private File spillFile;
+
+    private DataOutputStream spillOut;
+
+    private DataInputStream spillIn;
+
+    /**
+     * The number of batches in the spill file that haven't been read back yet.
+     */
+    private int spilledPending = 0;
+
+    private boolean closed = false;
+
+    private boolean done = false;
+
+    /**
+     * Stats.
+     */
+    private long droppedCount = 0;
+
+    private long spilledCount = 0;
+
+    /**
+     * CTOR.
+     */
+    public BatchHandOff(LineBatchListener listener, int capacity, Policy policy) {
+        this((Object) listener, capacity, policy);
+    }
+
+    /**
+     * CTOR.
+     */
+    public BatchHandOff(ByteChunkListener listener, int capacity, Policy policy) {
+        this((Object) listener, capacity, policy);
+    }
+
+    /**
+     * CTOR.
+     */
+    private BatchHandOff(Object listener, int capacity, Policy policy) {
+        this.listener = listener;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * @return true if the listener takes lines; false if it takes byte chunks.
+     */
+    public boolean isLineListener() {
+        return listener instanceof LineBatchListener;
+    }
+
+    /**
+     * Called by the reader: hand off the given batch (List<String> or byte[]).
+     */
+    public synchronized void offer(Object batch) throws IOException, InterruptedException {
+
+        if (spilledPending == 0 && queue.size() < capacity) {
+            queue.add(batch);
+            notifyAll();
+            return;
+        }
+
+        switch (policy) {
+            case BLOCK:
+                while (queue.size() >= capacity && !done) {
+                    wait();
+                }
+                if (!done) {
+                    queue.add(batch);
+                }
+                break;
+
+            case DROP:
+                ++droppedCount;
+                break;
+
+            case SPILL:
+                writeSpill(batch);
+                ++spilledPending;
+                ++spilledCount;
+                break;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Called by the reader at the end of the stream.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the next batch, waiting for one if need be; or null at the end of the stream.
+     */
+    protected synchronized Object take() throws IOException, InterruptedException {
+
+        while (queue.isEmpty() && spilledPending == 0 && !closed) {
+            wait();
+        }
+
+        Object retMe = null;
+
+        if (!queue.isEmpty()) {
+            retMe = queue.removeFirst();
+        } else if (spilledPending > 0) {
+            retMe = readSpill();
+            if (--spilledPending == 0) {
+                resetSpill();
+            }
+        }
+
+        notifyAll();
+        return retMe;
+    }
+
+    /**
+     * The dispatch loop: deliver batches to the listener until the end of the stream.
+     */
+    public void run() {
+        try {
+            for (Object batch = take(); batch != null; batch = take()) {
+                deliver(batch);
+            }
+        } catch (Exception e) {
+            Log.error(this, "run: ", e);
+        } finally {
+            try {
+                if (isLineListener()) {
+                    ((LineBatchListener) listener).onEnd();
+                } else {
+                    ((ByteChunkListener) listener).onEnd();
+                }
+            } finally {
+                synchronized (this) {
+                    resetSpill();
+                    FileUtils.deleteQuietly(spillFile);
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the given batch to the listener.
+     */
+    protected void deliver(Object batch) {
+        if (isLineListener()) {
+            ((LineBatchListener) listener).onLines( (List<String>) batch );
+        } else {
+            ((ByteChunkListener) listener).onBytes( (byte[]) batch );
+        }
+    }
+
+    /**
+     * Wait for the dispatch loop to deliver all batches.
+     */
+    public synchronized void awaitDone() throws InterruptedException {
+        while (!done) {
+            wait();
+        }
+    }
+
+    /**
+     * Append the given batch to the spill file.
+     */
+    protected void writeSpill(Object batch) throws IOException {
+        if (spillOut == null) {
+            if (spillFile == null) {
+                spillFile = File.createTempFile("ProcessHelper-spill-", ".tmp");
+                spillFile.deleteOnExit();
+            }
+            spillOut = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(spillFile) ) );
+        }
+
+        if (batch instanceof byte[]) {
+            byte[] bytes = (byte[]) batch;
+            spillOut.writeInt(bytes.length);
+            spillOut.write(bytes);
+        } else {
+            List<String> lines = (List<String>) batch;
+            spillOut.writeInt(lines.size());
+            for (String line : lines) {
+                byte[] bytes = line.getBytes("UTF-8");
+                spillOut.writeInt(bytes.length);
+                spillOut.write(bytes);
+            }
+        }
+
+        // So the reader can see it.
+        spillOut.flush();
+    }
+
+    /**
+     * @return the next batch from the spill file.
+     */
+    protected Object readSpill() throws IOException {
+        if (spillIn == null) {
+            spillIn = new DataInputStream( new BufferedInputStream( new FileInputStream(spillFile) ) );
+        }
+
+        if (!isLineListener()) {
+            byte[] bytes = new byte[spillIn.readInt()];
+            spillIn.readFully(bytes);
+            return bytes;
+        }
+
+        int lineCount = spillIn.readInt();
+        List<String> lines = new ArrayList<String>(lineCount);
+        for (int i=0; i < lineCount; ++i) {
+            byte[] bytes = new byte[spillIn.readInt()];
+            spillIn.readFully(bytes);
+            lines.add( new String(bytes, "UTF-8") );
+        }
+        return lines;
+    }
+
+    /**
+     * The spill file has been read back; start it over.
+     */
+    protected void resetSpill() {
+        IOUtils.closeQuietly(spillOut);
+        IOUtils.closeQuietly(spillIn);
+        spillOut = null;
+        spillIn = null;
+    }
+
+    /**
+     * @return the number of batches dropped (DROP policy).
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of batches spilled to disk (SPILL policy).
+     */
+    public synchronized long getSpilledCount() {
+        return spilledCount;
+    }
+
+}
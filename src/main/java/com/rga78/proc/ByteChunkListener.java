@@ -0,0 +1,22 @@
+package com.rga78.proc;
+
+/**
+ * Receives a process's output (from ProcessHelper) as chunks of raw bytes.
+ *
+ * Listeners are called on their own dispatch thread (see BatchHandOff), not on
+ * the thread reading the process's output.
+ */
+public interface ByteChunkListener {
+
+    /**
+     * Called with the next chunk of bytes, in order.  The chunk may be shared with
+     * other listeners, so don't modify it.
+     */
+    public void onBytes(byte[] chunk);
+
+    /**
+     * Called after the last chunk.
+     */
+    public void onEnd();
+
+}
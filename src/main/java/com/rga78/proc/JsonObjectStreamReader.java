@@ -0,0 +1,301 @@
+package com.rga78.proc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Reads a stream of concatenated JSON objects (e.g. JsonDoclet's output, pretty-printed
+ * or -compact) incrementally, as the bytes arrive, and returns them as an Iterator 
+ * of Maps.
+ *
+ * The bytes are framed into objects by tracking brace depth (outside of strings).
+ * Each complete object is handed to a parser pool, so parsing runs in parallel.
+ * The parsed objects are returned in stream order.
+ *
+ * Use it as a ByteChunkListener on ProcessHelper's stdout to consume the doclet's
+ * output while javadoc is still running:
+ *
+ *      JsonObjectStreamReader reader = new JsonObjectStreamReader();
+ *
+ *      new SimpleJavadocProcess()
+ *              ...
+ *              .buildProcessHelper()
+ *              .addListener( Stream.STDOUT, reader )
+ *              .setCapture( Stream.STDOUT, OutputCapture.none() )     // raw bytes, no lines
+ *              .spawnStreamReaders();
+ *
+ *      while (reader.hasNext()) {
+ *          Map doc = reader.next();
+ *          ...
+ *      }
+ *
+ * Backpressure: at most maxPending objects are framed ahead of the consumer.  After
+ * that, onBytes blocks, which (with the BLOCK hand-off policy) blocks the reader
+ * thread, and eventually the process.
+ *
+ * Anything outside of an object (e.g. whitespace, or javadoc's notices when not -quiet)
+ * is skipped.  Gzipped output (-gzip) isn't supported.
+ */
+public class JsonObjectStreamReader implements ByteChunkListener, Iterator<Map> {
+
+    /**
+     * The default parser pool, shared by all readers (see getSharedParserPool).
+     */
+    private static ExecutorService sharedParserPool;
+
+    /**
+     * Each parser pool thread has its own parser (JSONParser isn't thread-safe).
+     */
+    private static final ThreadLocal<JSONParser> Parsers = new ThreadLocal<JSONParser>() {
+        @Override
+        protected JSONParser initialValue() {
+            return new JSONParser();
+        }
+    };
+
+    /**
+     * Marks the end of the stream in the pending queue.
+     */
+    private static final Future<Map> EndOfStream = new FutureTask<Map>( new Callable<Map>() {
+        public Map call() {
+            return null;
+        }
+    });
+
+    private ExecutorService parserPool;
+
+    private Charset charset;
+
+    /**
+     * Framed objects being parsed, in order.
+     */
+    private BlockingQueue<Future<Map>> pending;
+
+    /**
+     * The next object for the iterator, once hasNext has found it.
+     */
+    private Future<Map> next;
+
+    /**
+     * Framing state.
+     */
+    private ByteArrayOutputStream currentObject = new ByteArrayOutputStream();
+
+    private int depth = 0;
+
+    private boolean inString = false;
+
+    private boolean escaped = false;
+
+    /**
+     * CTOR.  Uses the shared parser pool and UTF-8 (which is what the doclet writes).
+     */
+    public JsonObjectStreamReader() {
+        this(getSharedParserPool(), 1024, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * CTOR.
+     *
+     * @param parserPool - for parsing objects.  Not shut down by this guy.
+     * @param maxPending - max number of objects framed ahead of the consumer.
+     * @param charset - the stream's charset.  Must be ASCII-compatible (e.g. UTF-8).
+     */
+    public JsonObjectStreamReader(ExecutorService parserPool, int maxPending, Charset charset) {
+        this.parserPool = parserPool;
+        this.pending = new ArrayBlockingQueue<Future<Map>>( Math.max(1, maxPending) + 1 );
+        this.charset = charset;
+    }
+
+    /**
+     * @return the shared parser pool: a fixed pool of daemon threads, one per processor.
+     */
+    public static synchronized ExecutorService getSharedParserPool() {
+        if (sharedParserPool == null) {
+            sharedParserPool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JsonObjectStreamReader-parser");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sharedParserPool;
+    }
+
+    /**
+     * Frame the given bytes.  Each complete object is handed to the parser pool.
+     * Blocks if maxPending objects are waiting for the consumer.
+     */
+    @Override
+    public void onBytes(byte[] chunk) {
+        onBytes(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Frame the given bytes.
+     */
+    public void onBytes(byte[] chunk, int off, int len) {
+
+        int objectStart = (depth > 0) ? off : -1;
+
+        for (int i=off; i < off + len; ++i) {
+            byte b = chunk[i];
+
+            if (depth == 0) {
+                if (b == '{') {
+                    depth = 1;
+                    objectStart = i;
+                }
+                continue;
+            }
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{') {
+                ++depth;
+            } else if (b == '}') {
+                if (--depth == 0) {
+                    currentObject.write(chunk, objectStart, i + 1 - objectStart);
+                    submit( currentObject.toByteArray() );
+                    currentObject.reset();
+                    objectStart = -1;
+                }
+            }
+        }
+
+        if (objectStart >= 0) {
+            currentObject.write(chunk, objectStart, off + len - objectStart);
+        }
+    }
+
+    /**
+     * Parse the given object bytes on the parser pool.
+     */
+    protected void submit(final byte[] objectBytes) {
+        put( parserPool.submit( new Callable<Map>() {
+            public Map call() throws ParseException {
+                return (Map) Parsers.get().parse( new String(objectBytes, charset) );
+            }
+        }));
+    }
+
+    /**
+     * Queue the given future, waiting for room.
+     */
+    protected void put(Future<Map> future) {
+        try {
+            pending.put(future);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the consumer", ie);
+        }
+    }
+
+    /**
+     * End of the stream.  An incomplete last object is dropped.
+     */
+    @Override
+    public void onEnd() {
+        put(EndOfStream);
+    }
+
+    /**
+     * Read the given stream to the end (on this thread).  
+     *
+     * Note: unless maxPending is big enough for the whole stream, the iterator must 
+     * be consumed on another thread.
+     *
+     * @return this
+     */
+    public JsonObjectStreamReader readFully(InputStream is) throws IOException {
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                onBytes(buffer, 0, n);
+            }
+        } finally {
+            onEnd();
+        }
+        return this;
+    }
+
+    /**
+     * Waits for the next object to be framed (or the end of the stream).
+     *
+     * @return true if there's another object.
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = pending.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the next object", ie);
+            }
+        }
+        if (next == EndOfStream) {
+            // Leave it there, so hasNext keeps returning false.
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the next object, waiting for it to be parsed.
+     *
+     * @throws RuntimeException if it couldn't be parsed.
+     */
+    @Override
+    public Map next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Future<Map> future = next;
+        next = null;
+
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the next object", ie);
+        } catch (ExecutionException ee) {
+            throw new RuntimeException("Could not parse JSON object", ee.getCause());
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.rga78.proc;
+
+import java.util.List;
+
+/**
+ * Receives a process's output (from ProcessHelper) in batches of lines.
+ *
+ * Listeners are called on their own dispatch thread (see BatchHandOff), not on
+ * the thread reading the process's output, so a slow listener doesn't stall the
+ * reader (depending on the hand-off policy).
+ */
+public interface LineBatchListener {
+
+    /**
+     * Called with the next batch of lines, in order.
+     */
+    public void onLines(List<String> lines);
+
+    /**
+     * Called after the last batch.
+     */
+    public void onEnd();
+
+}
@@ -0,0 +1,230 @@
+package com.rga78.proc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Captures (the tail of) a process's output stream for ProcessHelper.
+ *
+ * The captured lines are kept in an array-backed ring buffer, bounded either by
+ * line count (lastLines) or by size (lastBytes).  Evicting the oldest line just 
+ * overwrites its slot, so there's no per-line node garbage.
+ *
+ * none() captures nothing.  statsOnly() captures nothing but counts lines and bytes.
+ * With either, ProcessHelper doesn't need to decode the stream into lines at all
+ * (unless someone's observing them).
+ *
+ * Note: in line mode bytes are counted as chars, plus one per line terminator.
+ *
+ * Not thread-safe.  Written by the reader thread; read once the reader is done.
+ */
+public class OutputCapture {
+
+    public enum Mode {
+        NONE,
+        STATS,
+        LINES,
+        BYTES;
+    }
+
+    private Mode mode;
+
+    /**
+     * Max lines (LINES mode) or bytes (BYTES mode) to keep.
+     */
+    private long limit;
+
+    /**
+     * The ring buffer.  head is the oldest line.
+     */
+    private String[] ring;
+
+    private int head = 0;
+
+    private int size = 0;
+
+    /**
+     * The size of the lines in the ring (BYTES mode).
+     */
+    private long ringBytes = 0;
+
+    /**
+     * Stats.
+     */
+    private long lineCount = 0;
+
+    private long byteCount = 0;
+
+    /**
+     * Use the static factory methods.
+     */
+    protected OutputCapture(Mode mode, long limit) {
+        this.mode = mode;
+        this.limit = limit;
+        if (mode == Mode.LINES) {
+            ring = new String[ (int) Math.max(1, limit) ];
+        } else if (mode == Mode.BYTES) {
+            ring = new String[16];
+        }
+    }
+
+    /**
+     * @return an OutputCapture that captures nothing.
+     */
+    public static OutputCapture none() {
+        return new OutputCapture(Mode.NONE, 0);
+    }
+
+    /**
+     * @return an OutputCapture that only counts lines and bytes.
+     */
+    public static OutputCapture statsOnly() {
+        return new OutputCapture(Mode.STATS, 0);
+    }
+
+    /**
+     * @return an OutputCapture that keeps the last maxLines lines.
+     */
+    public static OutputCapture lastLines(int maxLines) {
+        return new OutputCapture(Mode.LINES, maxLines);
+    }
+
+    /**
+     * @return an OutputCapture that keeps the last lines, up to maxBytes in total.
+     *         A single line bigger than maxBytes isn't kept.
+     */
+    public static OutputCapture lastBytes(long maxBytes) {
+        return new OutputCapture(Mode.BYTES, maxBytes);
+    }
+
+    /**
+     * @return the mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if lines are kept (LINES or BYTES mode).
+     */
+    public boolean isCapturingLines() {
+        return mode == Mode.LINES || mode == Mode.BYTES;
+    }
+
+    /**
+     * Capture the given line.
+     */
+    public void addLine(String line) {
+
+        ++lineCount;
+        byteCount += line.length() + 1;
+
+        if (mode == Mode.LINES) {
+            if (size == ring.length) {
+                ring[head] = line;
+                head = (head + 1) % ring.length;
+            } else {
+                ring[(head + size++) % ring.length] = line;
+            }
+
+        } else if (mode == Mode.BYTES) {
+            long lineBytes = line.length() + 1;
+            if (lineBytes > limit) {
+                clearRing();
+                return;
+            }
+
+            while (ringBytes + lineBytes > limit) {
+                ringBytes -= ring[head].length() + 1;
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                --size;
+            }
+
+            if (size == ring.length) {
+                growRing();
+            }
+            ring[(head + size++) % ring.length] = line;
+            ringBytes += lineBytes;
+        }
+    }
+
+    /**
+     * Count the given raw bytes (read without decoding into lines).  Lines are
+     * counted by '\n'.
+     */
+    public void addBytes(byte[] buffer, int off, int len) {
+        byteCount += len;
+        for (int i=off; i < off + len; ++i) {
+            if (buffer[i] == '\n') {
+                ++lineCount;
+            }
+        }
+    }
+
+    /**
+     * Count the given number of raw bytes, whose lines weren't counted.
+     */
+    public void addByteCount(long len) {
+        byteCount += len;
+    }
+
+    /**
+     * Double the ring's capacity (BYTES mode).
+     */
+    protected void growRing() {
+        String[] newRing = new String[ring.length * 2];
+        for (int i=0; i < size; ++i) {
+            newRing[i] = ring[(head + i) % ring.length];
+        }
+        ring = newRing;
+        head = 0;
+    }
+
+    /**
+     * Empty the ring.
+     */
+    protected void clearRing() {
+        for (int i=0; i < ring.length; ++i) {
+            ring[i] = null;
+        }
+        head = 0;
+        size = 0;
+        ringBytes = 0;
+    }
+
+    /**
+     * @return the captured lines, oldest first.
+     */
+    public List<String> getLines() {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        List<String> retMe = new ArrayList<String>(size);
+        for (int i=0; i < size; ++i) {
+            retMe.add( ring[(head + i) % ring.length] );
+        }
+        return retMe;
+    }
+
+    /**
+     * @return the number of lines seen (captured or not).
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the number of bytes seen (captured or not).
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public String toString() {
+        return "OutputCapture[mode=" + mode + ",limit=" + limit + ",lines=" + lineCount + ",bytes=" + byteCount + ",captured=" + size + "]";
+    }
+
+}
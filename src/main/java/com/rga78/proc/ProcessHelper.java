@@ -1,21 +1,32 @@
 package com.rga78.proc;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observer;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
 
 /**
  * A little wrapper around a forked Process.  It sets up separate threads
@@ -28,6 +39,25 @@ import java.util.concurrent.Future;
  * you need separate threads reading the stdout/stderr pipes from the Java
  * side while another thread calls, e.g, Process.waitFor.
  * 
+ * By default each stream is read line by line; each line is passed to the 
+ * stream's observers and the last 1000 lines are kept (see getStdout/getStderr).
+ * A stream that's piped (see pipeTo) and has no observers is instead copied as 
+ * raw bytes, in large blocks, with no charset decoding and no per-line objects.
+ * That's much cheaper for large outputs (e.g. multi-GB JSON).  By default only 
+ * line and byte counts are kept for such a stream, unless it's stderr: stderr 
+ * always keeps its last 1000 lines by default, for error reporting (ProcessException).
+ *
+ * Use setCapture to choose what's kept for a stream (see OutputCapture).  A stream
+ * with no observers whose capture doesn't keep lines is always read as raw bytes 
+ * (and discarded, if it's not piped).
+ * 
+ * Observers (see addObserver) are called for every line, on the reader thread, so 
+ * a slow observer stalls the reader (and eventually the process).  Listeners (see 
+ * addListener) instead get batches of lines (LineBatchListener) or chunks of bytes 
+ * (ByteChunkListener) on their own dispatch thread, via a bounded hand-off queue 
+ * (see BatchHandOff).  The hand-off policy decides whether the reader waits for a 
+ * slow listener (BLOCK), or drops (DROP) or spills to disk (SPILL) what doesn't fit.
+ * 
  */
 public class ProcessHelper<T extends ProcessHelper> {
     
@@ -56,11 +86,58 @@ public class ProcessHelper<T extends ProcessHelper> {
      */
     private Collection<Observer> stderrObservers = new ArrayList<Observer>();
     
+    /**
+     * Raw byte pipes for stdout/stderr (see pipeTo).  The streams are not closed.
+     */
+    private Map<Stream, OutputStream> streamPipes = new EnumMap<Stream, OutputStream>(Stream.class);
+
+    /**
+     * File pipes for stdout/stderr (see pipeTo).
+     */
+    private Map<Stream, File> filePipes = new EnumMap<Stream, File>(Stream.class);
+
+    /**
+     * Default hand-off queue capacity for listeners, in batches.
+     */
+    public static final int DefaultHandOffCapacity = 64;
+
+    /**
+     * Max lines per batch for LineBatchListeners.  A smaller batch is handed off
+     * whenever the reader would otherwise block waiting for more output.
+     */
+    protected static final int LineBatchSize = 256;
+
+    /**
+     * The listeners' hand-offs, per stream (see addListener).
+     */
+    private Map<Stream, List<BatchHandOff>> handOffs = new EnumMap<Stream, List<BatchHandOff>>(Stream.class);
+
+    /**
+     * What's kept of stdout/stderr (see setCapture).  If not set, see getCapture.
+     */
+    private Map<Stream, OutputCapture> captures = new EnumMap<Stream, OutputCapture>(Stream.class);
+
+    /**
+     * For re-encoding lines.
+     */
+    protected static final String LineSeparator = System.getProperty("line.separator");
+
+    /**
+     * Buffer size for raw byte pipes.
+     */
+    protected static final int PipeBufferSize = 64 * 1024;
+
+    /**
+     * The default ExecutorService for reading stdout/stderr, shared by all ProcessHelpers
+     * (see getSharedExecutorService).  Created lazily.
+     */
+    private static ExecutorService sharedExecutorService;
+
     /**
      * ExecutorService for creating separate threads to read the process's stdout/stderr streams.
-     * TODO: inject ExecutorService?
+     * Not shut down by this guy.
      */
-    private ExecutorService executorService = Executors.newCachedThreadPool();
+    private ExecutorService executorService;
     
     /**
      * The stdout stream.  Represented as a Future because the stream is read
@@ -78,6 +155,11 @@ public class ProcessHelper<T extends ProcessHelper> {
      */
     private Future<List<String>> stderr;
     
+    /**
+     * Files to delete once the process has ended (see deleteWhenDone).
+     */
+    private List<File> filesToDelete = new ArrayList<File>();
+    
     /**
      * A short description of the process, mainly for debugging purposes.
      */
@@ -89,7 +171,62 @@ public class ProcessHelper<T extends ProcessHelper> {
      * @param process - the already-started process.
      */
     public ProcessHelper(Process process) {
+        this(process, getSharedExecutorService());
+    }
+
+    /**
+     * CTOR.  
+     * 
+     * @param process - the already-started process.
+     * @param executorService - for reading the process's stdout/stderr (two tasks, each 
+     *                          running until the process closes the stream).  Listeners'
+     *                          dispatch loops don't run here (see getDispatchExecutorService).
+     *                          Not shut down by this guy.
+     */
+    public ProcessHelper(Process process, ExecutorService executorService) {
         this.process = process;
+        this.executorService = executorService;
+    }
+
+    /**
+     * The shared default ExecutorService for reading stdout/stderr.
+     * 
+     * On runtimes that support virtual threads (Java 21+), it's a virtual-thread-per-task
+     * executor.  Otherwise it's a cached pool of daemon threads: idle threads are reused
+     * across processes, and never keep the JVM from exiting.  
+     * 
+     * Note: the pool is deliberately unbounded.  Each reader blocks for the life of its
+     * process, so a bounded pool would stall once more processes were running than it
+     * had threads.
+     *
+     * @return the shared executor
+     */
+    public static synchronized ExecutorService getSharedExecutorService() {
+        if (sharedExecutorService == null) {
+            sharedExecutorService = newVirtualThreadExecutor();
+        }
+        if (sharedExecutorService == null) {
+            sharedExecutorService = Executors.newCachedThreadPool( new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ProcessHelper-reader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sharedExecutorService;
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() if the runtime has it (Java 21+);
+     *         otherwise null.  Called via reflection, since we build for older runtimes.
+     */
+    protected static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
     }
     
     /**
@@ -127,6 +264,93 @@ public class ProcessHelper<T extends ProcessHelper> {
         return addObserver(Stream.STDERR, observer);
     }
     
+    /**
+     * Add a listener that receives batches of lines from the given output stream.
+     * The reader waits for the listener if the hand-off queue fills up (BLOCK).
+     * 
+     * Note: listeners should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @return this
+     */
+    public T addListener(Stream stream, LineBatchListener listener) {
+        return addListener(stream, listener, BatchHandOff.Policy.BLOCK, DefaultHandOffCapacity);
+    }
+
+    /**
+     * Add a listener that receives batches of lines from the given output stream.
+     * 
+     * Note: listeners should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @param policy - what to do when the hand-off queue is full
+     * @param capacity - the hand-off queue capacity, in batches
+     * 
+     * @return this
+     */
+    public T addListener(Stream stream, LineBatchListener listener, BatchHandOff.Policy policy, int capacity) {
+        return addHandOff(stream, new BatchHandOff(listener, capacity, policy));
+    }
+
+    /**
+     * Add a listener that receives chunks of raw bytes from the given output stream.
+     * The reader waits for the listener if the hand-off queue fills up (BLOCK).
+     * 
+     * Note: listeners should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @return this
+     */
+    public T addListener(Stream stream, ByteChunkListener listener) {
+        return addListener(stream, listener, BatchHandOff.Policy.BLOCK, DefaultHandOffCapacity);
+    }
+
+    /**
+     * Add a listener that receives chunks of raw bytes from the given output stream.
+     * If the stream is read line by line (e.g. it has observers), the chunks are the
+     * lines, re-encoded.
+     * 
+     * Note: listeners should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @param policy - what to do when the hand-off queue is full
+     * @param capacity - the hand-off queue capacity, in batches
+     * 
+     * @return this
+     */
+    public T addListener(Stream stream, ByteChunkListener listener, BatchHandOff.Policy policy, int capacity) {
+        return addHandOff(stream, new BatchHandOff(listener, capacity, policy));
+    }
+
+    /**
+     * @return this
+     */
+    protected T addHandOff(Stream stream, BatchHandOff handOff) {
+        getHandOffs(stream).add(handOff);
+        return (T) this;
+    }
+
+    /**
+     * @return the listeners' hand-offs for the given stream.
+     */
+    protected synchronized List<BatchHandOff> getHandOffs(Stream stream) {
+        List<BatchHandOff> retMe = handOffs.get(stream);
+        if (retMe == null) {
+            retMe = new ArrayList<BatchHandOff>();
+            handOffs.put(stream, retMe);
+        }
+        return retMe;
+    }
+
+    /**
+     * @return true if the given stream has a LineBatchListener (if lineListeners)
+     *         or a ByteChunkListener (if !lineListeners).
+     */
+    protected boolean hasListeners(Stream stream, boolean lineListeners) {
+        for (BatchHandOff handOff : getHandOffs(stream)) {
+            if (handOff.isLineListener() == lineListeners) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Set the description
      * 
@@ -145,12 +369,59 @@ public class ProcessHelper<T extends ProcessHelper> {
     }
     
     /**
-     * Redirect to the given output stream
+     * Redirect to the given output stream.  The bytes are copied as is (no charset 
+     * decoding), unless the stream also has observers, in which case the lines are
+     * written (with the platform line separator).  The output stream is flushed but not closed.
+     * 
+     * Note: pipes should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @return this
      */
     public T pipeTo(Stream stream, OutputStream outputStream) {
-        return addObserver( stream, new StreamPiper(outputStream) );
+        streamPipes.put(stream, outputStream);
+        return (T) this;
+    }
+
+    /**
+     * Redirect to the given file (overwritten).  If the stream has no observers, the 
+     * bytes are transferred straight into the file's channel.
+     * 
+     * Note: pipes should be added *BEFORE* calling spawnStreamReaders.
+     * 
+     * @return this
+     */
+    public T pipeTo(Stream stream, File file) {
+        filePipes.put(stream, file);
+        return (T) this;
     }
     
+    /**
+     * Set what's kept of the given stream's output (see OutputCapture).
+     * 
+     * Note: captures should be set *BEFORE* calling spawnStreamReaders.
+     * 
+     * @return this
+     */
+    public T setCapture(Stream stream, OutputCapture capture) {
+        captures.put(stream, capture);
+        return (T) this;
+    }
+
+    /**
+     * @return the capture for the given stream.  If not set, it's created on first use:
+     *         stats only for a piped stdout with no observers, otherwise the last 1000 lines.
+     *         stderr keeps its lines even when piped, since that's what errors are reported with.
+     */
+    public synchronized OutputCapture getCapture(Stream stream) {
+        OutputCapture capture = captures.get(stream);
+        if (capture == null) {
+            boolean isPiped = streamPipes.containsKey(stream) || filePipes.containsKey(stream);
+            capture = (stream == Stream.STDOUT && isPiped && getObservers(stream).isEmpty()) ? OutputCapture.statsOnly() : OutputCapture.lastLines(1000);
+            captures.put(stream, capture);
+        }
+        return capture;
+    }
+
     /**
      * @return the executorService, for spawning threads to read stdout/stderr.
      */
@@ -159,22 +430,20 @@ public class ProcessHelper<T extends ProcessHelper> {
     }
     
     /**
-     * @return this
+     * The listeners' dispatch loops run on the shared executor, never on the injected
+     * one.  A reader waits on its listeners' hand-offs (e.g. BLOCK), so if the loops 
+     * shared a bounded pool with the readers, they could be left queued behind the very
+     * readers that are waiting for them.
+     * 
+     * @return the executorService for the listeners' dispatch loops.
      */
-    protected T shutdownExecutor() {
-        
-        // Shutdown the executor threads.  
-        // If we don't do this, then the JVM may not exit right
-        // away because of cached (non-daemon) threads in the pool.  Eventually 
-        // the cached threads time out and terminate from inactivity, which then
-        // allows the JVM to exit, but that could take 20 or 30 seconds or so.
-        getExecutorService().shutdown();
-        
-        return (T) this;
+    protected ExecutorService getDispatchExecutorService() {
+        return getSharedExecutorService();
     }
     
     /**
-     * Spawn threads (via the ExecutorService) to read stdout/stderr of the process.
+     * Spawn threads (via the ExecutorService) to read stdout/stderr of the process,
+     * and (via getDispatchExecutorService) to run the listeners' dispatch loops.
      * 
      * @return this
      */
@@ -185,6 +454,13 @@ public class ProcessHelper<T extends ProcessHelper> {
             return (T) this;
         }
         
+        // Start the listeners' dispatch loops.
+        for (Stream stream : Stream.values()) {
+            for (BatchHandOff handOff : getHandOffs(stream)) {
+                getDispatchExecutorService().submit(handOff);
+            }
+        }
+
         // Start threads for reading stdout and stderr.
         // Note: this must be done on separate threads otherwise the process may block
         // waiting for this guy to read some output.
@@ -205,7 +481,8 @@ public class ProcessHelper<T extends ProcessHelper> {
     
     /**
      * Start separate threads for reading stdout/stderr of the Process, 
-     * then call process.waitFor.
+     * then call process.waitFor.  Also waits for the readers to finish
+     * reading and the listeners to receive all output.
      * 
      * @return this
      */
@@ -214,11 +491,69 @@ public class ProcessHelper<T extends ProcessHelper> {
         spawnStreamReaders();
 
         getProcess().waitFor();
+        deleteFiles();
+
+        awaitReaders();
         
-        shutdownExecutor();
+        return (T) this;
+    }
+
+    /**
+     * Delete the given file once the process has ended, e.g. a temp file that the 
+     * process reads.  It's deleted by waitFor, or else by a watcher task on the shared 
+     * executor, so it's cleaned up even if nobody waits on this ProcessHelper.
+     * 
+     * @return this
+     */
+    public synchronized T deleteWhenDone(File file) {
+
+        if (filesToDelete.isEmpty()) {
+            getSharedExecutorService().submit( new Runnable() {
+                public void run() {
+                    try {
+                        getProcess().waitFor();
+                        deleteFiles();
+                    } catch (InterruptedException ie) {
+                        // Shutting down.  Leave the files (e.g. to File.deleteOnExit).
+                    }
+                }
+            });
+        }
+
+        filesToDelete.add(file);
         
         return (T) this;
     }
+
+    /**
+     * Delete the files registered via deleteWhenDone.
+     */
+    protected synchronized void deleteFiles() {
+        for (File file : filesToDelete) {
+            FileUtils.deleteQuietly(file);
+        }
+        filesToDelete.clear();
+    }
+
+    /**
+     * Wait for the stdout/stderr readers to finish and the listeners to receive all
+     * output.  Reader failures are left for getStdout/getStderr to report.
+     */
+    protected void awaitReaders() throws InterruptedException {
+        for (Future<List<String>> future : Arrays.asList(stdout, stderr)) {
+            try {
+                future.get();
+            } catch (ExecutionException ee) {
+                // Reported by getStdout/getStderr.
+            }
+        }
+
+        for (Stream stream : Stream.values()) {
+            for (BatchHandOff handOff : getHandOffs(stream)) {
+                handOff.awaitDone();
+            }
+        }
+    }
     
     /**
      * Destroy the process (via process.destroy()), then wait for it to terminate.
@@ -231,9 +566,10 @@ public class ProcessHelper<T extends ProcessHelper> {
         
         getProcess().destroy();
         getProcess().waitFor();
-        
-        shutdownExecutor();
+        deleteFiles();
 
+        awaitReaders();
+        
         return (T) this;
     }
     
@@ -320,57 +656,189 @@ public class ProcessHelper<T extends ProcessHelper> {
     /**
      * Read the contents of the given inputstream.
      * 
-     * Each line is passed to the output observers.
+     * If the stream has no observers and its capture doesn't keep lines, the bytes are
+     * copied straight to the pipe (or discarded, if there's no pipe).
      * 
-     * The last 1000 lines are saved in a list and returned.
+     * Otherwise each line is passed to the output observers (and the pipe, if any),
+     * and to the stream's capture.
      *
-     * @return The last 1000 lines of the InputStream.
+     * @return The captured lines of the InputStream.
      */
     protected List<String> loadStream(Stream stream, InputStream is) throws IOException {
-        List<String> retMe = new LimitedQueue<String>(1000);
+
+        OutputCapture capture = getCapture(stream);
+        boolean isLineMode = !getObservers(stream).isEmpty() || capture.isCapturingLines() || hasListeners(stream, true);
+
+        try {
+            File file = filePipes.get(stream);
+            if (file != null) {
+                FileOutputStream fos = new FileOutputStream(file);
+                try {
+                    if (isLineMode) {
+                        loadLines(stream, is, fos, capture);
+                    } else if (capture.getMode() == OutputCapture.Mode.NONE && !hasListeners(stream, false)) {
+                        capture.addByteCount( transferBytes(is, fos.getChannel()) );
+                    } else {
+                        transferBytes(stream, is, fos, capture);
+                    }
+                } finally {
+                    fos.close();
+                }
+
+            } else if (isLineMode) {
+                loadLines(stream, is, streamPipes.get(stream), capture);
+
+            } else {
+                transferBytes(stream, is, streamPipes.get(stream), capture);
+            }
+
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted handing off output to listeners");
+
+        } finally {
+            for (BatchHandOff handOff : getHandOffs(stream)) {
+                handOff.close();
+            }
+        }
+
+        return capture.getLines();
+    }
+
+    /**
+     * Read the given inputstream line by line.  Each line is passed to the output 
+     * observers, written to the given pipe (if not null), and captured.
+     */
+    protected void loadLines(Stream stream, InputStream is, OutputStream pipe, OutputCapture capture) throws IOException, InterruptedException {
         BufferedReader br = new BufferedReader(new InputStreamReader( is ) );     // stdout
+        StreamPiper streamPiper = (pipe != null) ? new StreamPiper(pipe) : null;
+        boolean hasListeners = !getHandOffs(stream).isEmpty();
+        List<String> batch = new ArrayList<String>();
         String line;
         while ((line = br.readLine()) != null) {
-            retMe.add(line);
+            capture.addLine(line);
             notifyObservers(stream, line);
+            if (streamPiper != null) {
+                streamPiper.update(null, line);
+            }
+            if (hasListeners) {
+                batch.add(line);
+                // Hand off the batch when it's full, or before waiting for more output.
+                if (batch.size() >= LineBatchSize || !br.ready()) {
+                    handOffLines(stream, batch);
+                    batch = new ArrayList<String>();
+                }
+            }
         } 
-        return retMe;
+        if (!batch.isEmpty()) {
+            handOffLines(stream, batch);
+        }
+        if (streamPiper != null) {
+            streamPiper.flush();
+        }
     }
-    
+
     /**
-     * Notify output observers when a new line of output is read from the process's
-     * stdout or stderr streams.
+     * Hand off the given batch of lines to the stream's listeners.  ByteChunkListeners
+     * get the lines re-encoded, one chunk per batch.
      */
-    protected void notifyObservers(Stream stream, String line) {
-        Collection<Observer> observers = (stream == Stream.STDOUT) ? stdoutObservers : stderrObservers;
-        for (Observer observer : observers) {
-            observer.update(null, line);
+    protected void handOffLines(Stream stream, List<String> batch) throws IOException, InterruptedException {
+        byte[] chunk = null;
+        for (BatchHandOff handOff : getHandOffs(stream)) {
+            if (handOff.isLineListener()) {
+                handOff.offer(batch);
+            } else {
+                if (chunk == null) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String line : batch) {
+                        sb.append(line).append(LineSeparator);
+                    }
+                    chunk = sb.toString().getBytes();
+                }
+                handOff.offer(chunk);
+            }
+        }
+    }
+
+    /**
+     * Copy the given inputstream to the given outputstream, in large blocks, counting
+     * the bytes in the given capture and handing them off to the stream's listeners
+     * (ByteChunkListeners; there are no LineBatchListeners in raw mode).  The 
+     * outputstream is flushed but not closed.
+     *
+     * @param os - the output stream, or null to discard the bytes.
+     */
+    protected void transferBytes(Stream stream, InputStream is, OutputStream os, OutputCapture capture) throws IOException, InterruptedException {
+        List<BatchHandOff> streamHandOffs = getHandOffs(stream);
+        byte[] buffer = new byte[PipeBufferSize];
+        int n;
+        while ((n = is.read(buffer)) >= 0) {
+            if (capture.getMode() != OutputCapture.Mode.NONE) {
+                capture.addBytes(buffer, 0, n);
+            }
+            if (os != null) {
+                os.write(buffer, 0, n);
+            }
+            if (!streamHandOffs.isEmpty() && n > 0) {
+                byte[] chunk = Arrays.copyOf(buffer, n);
+                for (BatchHandOff handOff : streamHandOffs) {
+                    handOff.offer(chunk);
+                }
+            }
+        }
+        if (os != null) {
+            os.flush();
         }
     }
 
+    /**
+     * Transfer the given inputstream into the given file channel.  The bytes go 
+     * straight from the pipe into the file, without passing through a byte[].
+     *
+     * @return the number of bytes transferred.
+     */
+    protected long transferBytes(InputStream is, FileChannel fileChannel) throws IOException {
+        ReadableByteChannel inChannel = Channels.newChannel(is);
+        ByteBuffer probe = null;
+        long position = 0;
 
-}
+        while (true) {
+            long n = fileChannel.transferFrom(inChannel, position, PipeBufferSize * 16);
+            if (n > 0) {
+                position += n;
+                continue;
+            }
 
-/**
- * Fixed-size circular FIFO queue.
- * 
- */
-class LimitedQueue<E> extends LinkedList<E> {
+            // 0 means EOF, or no bytes were read this time.  Read directly to tell which.
+            probe = (probe != null) ? probe : ByteBuffer.allocate(PipeBufferSize);
+            probe.clear();
+            if (inChannel.read(probe) < 0) {
+                break;
+            }
+            probe.flip();
+            while (probe.hasRemaining()) {
+                position += fileChannel.write(probe, position);
+            }
+        }
 
-    private final int limit;
+        return position;
+    }
 
-    public LimitedQueue(int limit) {
-        this.limit = limit;
+    /**
+     * @return the output observers for the given stream.
+     */
+    protected Collection<Observer> getObservers(Stream stream) {
+        return (stream == Stream.STDOUT) ? stdoutObservers : stderrObservers;
+    }
+    
+    /**
+     * Notify output observers when a new line of output is read from the process's
+     * stdout or stderr streams.
+     */
+    protected void notifyObservers(Stream stream, String line) {
+        for (Observer observer : getObservers(stream)) {
+            observer.update(null, line);
+        }
     }
 
-    @Override
-    public boolean add(E o) {
-        super.add(o);    // added to tail.
-        
-        while (size() > limit) { 
-            remove(); // removed from head
-        } 
 
-        return true;
-    }
 }
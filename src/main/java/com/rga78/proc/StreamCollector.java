@@ -6,9 +6,10 @@ import java.util.Observable;
 import java.util.Observer;
 
 /**
- * OutputObserver for ProcessHelper that collects all output into a List<String>
+ * OutputObserver (or LineBatchListener) for ProcessHelper that collects all output 
+ * into a List<String>
  */
-public class StreamCollector implements Observer {
+public class StreamCollector implements Observer, LineBatchListener {
     
     /**
      * The output stream.
@@ -23,6 +24,18 @@ public class StreamCollector implements Observer {
         output.add((String)line);
     }
 
+    /**
+     * Collect the batch of lines.
+     */
+    @Override
+    public void onLines(List<String> lines) {
+        output.addAll(lines);
+    }
+
+    @Override
+    public void onEnd() {
+    }
+
     /**
      * @return the collected output.
      */
@@ -2,13 +2,15 @@ package com.rga78.proc;
 
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
 /**
- * OutputObserver for ProcessHelper that logs the output via Log.log.
+ * OutputObserver (or LineBatchListener) for ProcessHelper that writes the output
+ * to an OutputStream.
  */
-public class StreamPiper implements Observer {
+public class StreamPiper implements Observer, LineBatchListener {
     
     /**
      * The output stream.
@@ -30,4 +32,29 @@ public class StreamPiper implements Observer {
         printStream.println(line);
     }
 
+    /**
+     * Write the batch of lines to the printStream.
+     */
+    @Override
+    public void onLines(List<String> lines) {
+        for (String line : lines) {
+            printStream.println(line);
+        }
+    }
+
+    /**
+     * Flush the printStream.
+     */
+    @Override
+    public void onEnd() {
+        flush();
+    }
+
+    /**
+     * Flush the printStream.
+     */
+    public void flush() {
+        printStream.flush();
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.rga78.coll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class LruCacheTest {
+
+    @Test
+    public void testEviction() {
+
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        // Touch "a", so "b" is the least recently used.
+        assertEquals( "A", cache.get("a") );
+
+        cache.put("c", "C");
+
+        assertNull( cache.get("b") );
+        assertEquals( "A", cache.get("a") );
+        assertEquals( "C", cache.get("c") );
+
+        assertEquals( 2, cache.size() );
+        assertEquals( 3, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getEvictions() );
+    }
+
+    @Test
+    public void testClear() {
+
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+
+        cache.put("a", "A");
+        cache.clear();
+
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get("a") );
+        assertEquals( 0, cache.getEvictions() );
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.rga78.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ParallelGzipOutputStreamTest {
+
+    /**
+     * @return some test data
+     */
+    protected byte[] buildData(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i < lines; ++i) {
+            sb.append("{\"line\":" + i + ",\"text\":\"some repetitive text for line " + i + "\"}\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Streams on the shared pool don't shut it down when they're closed.
+     */
+    @Test
+    public void testSharedExecutorService() throws Exception {
+
+        ExecutorService executorService = ParallelGzipOutputStream.getSharedExecutorService();
+        assertSame( executorService, ParallelGzipOutputStream.getSharedExecutorService() );
+
+        byte[] data = buildData(1000);
+
+        for (int i=0; i < 2; ++i) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(bos, executorService, 4096);
+            gzip.write(data);
+            gzip.close();
+
+            assertFalse( executorService.isShutdown() );
+            assertTrue( Arrays.equals( data, IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( bos.toByteArray() ) ) ) ) );
+        }
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+
+        byte[] data = buildData(5000);
+
+        ExecutorService executorService = ParallelGzipOutputStream.newDaemonThreadPool(4);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        StringWriter index = new StringWriter();
+
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(bos, executorService, 4096).setIndexWriter(index);
+        gzip.write(data);
+        gzip.close();
+        executorService.shutdown();
+
+        assertTrue( gzip.getMemberCount() > 1 );
+        assertEquals( gzip.getMemberCount(), index.toString().split("\n").length );
+
+        byte[] gunzipped = IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( bos.toByteArray() ) ) );
+        assertTrue( Arrays.equals( data, gunzipped ) );
+    }
+
+    /**
+     * Each member can be decompressed on its own, using the block index.
+     */
+    @Test
+    public void testSeekToMember() throws Exception {
+
+        ExecutorService executorService = ParallelGzipOutputStream.newDaemonThreadPool(2);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        StringWriter index = new StringWriter();
+
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(bos, executorService, 1024)
+                                                .setIndexWriter(index)
+                                                .setRecordAligned(true);
+
+        for (int i=0; i < 200; ++i) {
+            gzip.write( buildData(1) );
+            gzip.endRecord();
+        }
+        gzip.close();
+        executorService.shutdown();
+
+        List<String> members = Arrays.asList( index.toString().split("\n") );
+        JSONObject member = (JSONObject) JSONValue.parse( members.get( members.size() / 2 ) );
+
+        int offset = ((Number) member.get("offset")).intValue();
+        int length = ((Number) member.get("length")).intValue();
+
+        byte[] gunzipped = IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( bos.toByteArray(), offset, length ) ) );
+
+        assertEquals( ((Number) member.get("uncompressedLength")).intValue(), gunzipped.length );
+
+        // Record-aligned: the member contains whole lines.
+        assertTrue( new String(gunzipped).startsWith("{\"line\":") );
+        assertTrue( new String(gunzipped).endsWith("}\n") );
+    }
+
+    /**
+     * An empty stream is still valid gzip.
+     */
+    @Test
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(bos).close();
+
+        byte[] gunzipped = IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( bos.toByteArray() ) ) );
+        assertEquals( 0, gunzipped.length );
+    }
+
+    /**
+     * The underlying stream is closed even if the final write fails.
+     */
+    @Test
+    public void testCloseAfterFailedFinish() throws Exception {
+
+        final boolean[] closed = new boolean[1];
+
+        OutputStream failingStream = new OutputStream() {
+            public void write(int b) throws IOException {
+                throw new IOException("write failed");
+            }
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("write failed");
+            }
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        ParallelGzipOutputStream gzipStream = new ParallelGzipOutputStream(failingStream);
+        gzipStream.write( "some data".getBytes() );
+
+        try {
+            gzipStream.close();
+            fail("expected IOException");
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        assertTrue( closed[0] );
+    }
+}
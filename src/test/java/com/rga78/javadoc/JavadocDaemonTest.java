@@ -0,0 +1,274 @@
+package com.rga78.javadoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rga78.io.ChunkedInputStream;
+import com.rga78.junit.CaptureSystemOutRule;
+
+/**
+ * 
+ */
+public class JavadocDaemonTest {
+    
+    /**
+     * Capture and suppress stdout unless the test fails.
+     */
+    @Rule
+    public CaptureSystemOutRule systemOutRule  = new CaptureSystemOutRule( );
+
+    /**
+     * 
+     */
+    @Test
+    public void testRunOnDaemon() throws Exception {
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 2).start();
+
+        try {
+            SimpleJavadocProcess javadocProcess = new SimpleJavadocProcess()
+                                                        .setSourcePath( new File("src/test/java") )
+                                                        .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                        .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                                        .setQuiet(true);
+
+            // Run it twice; the second run is on a warm JVM.
+            for (int i=0; i < 2; ++i) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+                Map status = javadocProcess.runOnDaemon( javadocDaemon.getPort(), javadocDaemon.getToken(), bos );
+
+                assertEquals( JavadocDaemon.JobStatusMetaType, status.get("metaType") );
+                assertEquals( 0L, status.get("exitCode") );
+                assertTrue( status.containsKey("elapsedMillis") );
+                assertEquals( JsonDocletTest.ExpectedTestJavadocSize, bos.toString().split("\n").length );
+            }
+
+            assertEquals( 2, javadocDaemon.getJobCount() );
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * With -outputDir, the output goes to the dir.
+     */
+    @Test
+    public void testRunOnDaemonWithOutputDir() throws Exception {
+
+        File outputDir = new File("target/JavadocDaemonTest.testRunOnDaemonWithOutputDir");
+        FileUtils.deleteQuietly( outputDir );
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).start();
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            Map status = new SimpleJavadocProcess()
+                                .setSourcePath( new File("src/test/java") )
+                                .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                .setDocletOptions( Arrays.asList( DocletOptions.OutputDir, outputDir.getPath() ) )
+                                .setQuiet(true)
+                                .runOnDaemon( javadocDaemon.getPort(), javadocDaemon.getToken(), bos );
+
+            assertEquals( 0L, status.get("exitCode") );
+            assertEquals( 0, bos.size() );
+            assertTrue( new File(outputDir, ShardedDocumentSink.ManifestFileName).exists() );
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * A request with the wrong token is rejected, and nothing is written.
+     */
+    @Test
+    public void testWrongToken() throws Exception {
+
+        File outputDir = new File("target/JavadocDaemonTest.testWrongToken");
+        FileUtils.deleteQuietly( outputDir );
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).start();
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            Map status = new SimpleJavadocProcess()
+                                .setSourcePath( new File("src/test/java") )
+                                .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                .setDocletOptions( Arrays.asList( DocletOptions.OutputDir, outputDir.getPath() ) )
+                                .setQuiet(true)
+                                .runOnDaemon( javadocDaemon.getPort(), JavadocDaemon.generateToken(), bos );
+
+            assertEquals( -1L, status.get("exitCode") );
+            assertTrue( ((String) status.get("error")).contains("token") );
+            assertEquals( 0, bos.size() );
+            assertFalse( outputDir.exists() );
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * A request that isn't a JSON object gets an error status, not a dropped connection.
+     */
+    @Test
+    public void testInvalidRequest() throws Exception {
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).start();
+
+        try {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), javadocDaemon.getPort());
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write( "[\"not a job\"]\n".getBytes("UTF-8") );
+                out.flush();
+
+                InputStream in = socket.getInputStream();
+                IOUtils.copy( new ChunkedInputStream(in), new ByteArrayOutputStream() );
+
+                JSONObject status = (JSONObject) new JSONParser().parse( JavadocDaemon.readLine(in) );
+
+                assertEquals( JavadocDaemon.JobStatusMetaType, status.get("metaType") );
+                assertEquals( -1L, status.get("exitCode") );
+                assertTrue( ((String) status.get("error")).contains("not a JSON object") );
+
+            } finally {
+                socket.close();
+            }
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * A connection that never sends its request doesn't hold up other jobs.
+     */
+    @Test(timeout = 60000)
+    public void testIdleConnectionDoesNotTakeJobSlot() throws Exception {
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).start();
+
+        Socket idleSocket = new Socket(InetAddress.getLoopbackAddress(), javadocDaemon.getPort());
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            Map status = new SimpleJavadocProcess()
+                                .setSourcePath( new File("src/test/java") )
+                                .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                .setQuiet(true)
+                                .runOnDaemon( javadocDaemon.getPort(), javadocDaemon.getToken(), bos );
+
+            assertEquals( 0L, status.get("exitCode") );
+            assertEquals( 1, javadocDaemon.getJobCount() );
+
+        } finally {
+            idleSocket.close();
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * A request that doesn't arrive in time is rejected.
+     */
+    @Test(timeout = 60000)
+    public void testRequestTimeout() throws Exception {
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).setRequestTimeoutMillis(200).start();
+
+        try {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), javadocDaemon.getPort());
+            try {
+                JSONObject status = readStatus( socket );
+
+                assertEquals( -1L, status.get("exitCode") );
+                assertTrue( ((String) status.get("error")).contains("timed out") );
+
+            } finally {
+                socket.close();
+            }
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * A request line longer than maxRequestBytes is rejected without reading the rest.
+     */
+    @Test(timeout = 60000)
+    public void testRequestTooLong() throws Exception {
+
+        JavadocDaemon javadocDaemon = new JavadocDaemon(0, 1).setMaxRequestBytes(100).start();
+
+        try {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), javadocDaemon.getPort());
+            try {
+                OutputStream out = socket.getOutputStream();
+                // Exactly one byte too many, so the daemon doesn't close with unread input (which resets the connection).
+                out.write( new byte[101] );
+                out.flush();
+
+                JSONObject status = readStatus( socket );
+
+                assertEquals( -1L, status.get("exitCode") );
+                assertTrue( ((String) status.get("error")).contains("longer than 100 bytes") );
+
+            } finally {
+                socket.close();
+            }
+
+        } finally {
+            javadocDaemon.close();
+        }
+    }
+
+    /**
+     * @return the job status from the given socket, after skipping the (chunked) output.
+     */
+    protected JSONObject readStatus(Socket socket) throws Exception {
+        InputStream in = socket.getInputStream();
+        IOUtils.copy( new ChunkedInputStream(in), new ByteArrayOutputStream() );
+        return (JSONObject) new JSONParser().parse( JavadocDaemon.readLine(in) );
+    }
+
+    /**
+     * The token file is readable only by its owner.
+     */
+    @Test
+    public void testTokenFile() throws Exception {
+
+        File tokenFile = new File("target/JavadocDaemonTest.testTokenFile.token");
+        String token = JavadocDaemon.generateToken();
+
+        JavadocDaemon.writeTokenFile( tokenFile, token );
+
+        assertEquals( token, JavadocDaemon.readTokenFile( tokenFile ) );
+        assertEquals( "rw-------", PosixFilePermissions.toString( Files.getPosixFilePermissions( tokenFile.toPath() ) ) );
+    }
+
+}
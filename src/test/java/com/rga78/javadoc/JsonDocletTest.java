@@ -4,10 +4,17 @@ package com.rga78.javadoc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -18,12 +25,16 @@ import org.json.simple.parser.JSONParser;
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.rga78.coll.Cawls;
 import com.rga78.junit.CaptureSystemOutRule;
 import com.rga78.log.Log;
+import com.rga78.proc.JsonObjectStreamReader;
+import com.rga78.proc.OutputCapture;
 import com.rga78.proc.ProcessHelper;
 import com.rga78.proc.ProcessHelper.Stream;
 import com.rga78.proc.StreamCollector;
 import com.sun.javadoc.MethodDoc;
+import com.sun.javadoc.Parameter;
 
 /**
  *
@@ -75,6 +86,582 @@ public class JsonDocletTest {
         assertEquals( "com.rga78.javadoc.test", ((JSONObject)doc.get(doc.size()-1)).get("name"));
     }
     
+    /**
+     * The documents can be consumed while javadoc is running, with JsonObjectStreamReader.
+     */
+    @Test
+    public void testStreamingReader() throws Exception {
+
+        JsonObjectStreamReader reader = new JsonObjectStreamReader();
+
+        ProcessHelper javadocProcess = new SimpleJavadocProcess()
+                                                    .setSourcePath( new File("src/test/java") )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                    .setQuiet(true)
+                                                    .buildProcessHelper()
+                                                    .addListener( Stream.STDOUT, reader )
+                                                    .setCapture( Stream.STDOUT, OutputCapture.none() )
+                                                    .spawnStreamReaders();
+
+        List<Map> docs = new ArrayList<Map>();
+        while (reader.hasNext()) {
+            docs.add( reader.next() );
+        }
+
+        javadocProcess.waitFor();
+
+        assertEquals( 0, javadocProcess.exitValue() );
+        assertEquals( ExpectedTestJavadocSize, docs.size() );
+        assertEquals( "package", Cawls.getLast(docs).get("metaType"));
+        assertEquals( "com.rga78.javadoc.test", Cawls.getLast(docs).get("name"));
+    }
+
+    /**
+     * -compact writes exactly one JSON object per line.
+     */
+    @Test
+    public void testCompact() throws Exception {
+
+        File sourcePath = new File("src/test/java");
+        
+        StreamCollector streamCollector = new StreamCollector();
+
+        ProcessHelper javadocProcess = new SimpleJavadocProcess()
+                                                    .setDocletClass( JsonDoclet.class )
+                                                    .setSourcePath( sourcePath )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                    .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                                    .setQuiet(true)
+                                                    .buildProcessHelper()
+                                                    .addObserver( Stream.STDOUT, streamCollector )
+                                                    .spawnStreamReaders()
+                                                    .waitFor();
+    
+        Log.trace(this, "testCompact: ", streamCollector.getOutput());
+
+        assertEquals( ExpectedTestJavadocSize, streamCollector.getOutput().size() );
+
+        for (String line : streamCollector.getOutput()) {
+            JSONObject obj = (JSONObject) new JSONParser().parse( line );
+            assertFalse( obj.isEmpty() );
+        }
+
+        JSONObject last = (JSONObject) new JSONParser().parse( Cawls.getLast( streamCollector.getOutput() ) );
+        assertEquals( "package", last.get("metaType"));
+        assertEquals( "com.rga78.javadoc.test", last.get("name"));
+    }
+    
+    /**
+     * The output is the same regardless of the number of encoding threads.
+     */
+    @Test
+    public void testThreads() throws Exception {
+        assertEquals( runCompact( DocletOptions.Threads, "1" ), runCompact( DocletOptions.Threads, "4" ) );
+    }
+
+    /**
+     * -prune drops null values, empty arrays and empty objects, including objects whose
+     * values are all empty (e.g. a wildcard type with no bounds), and nothing else.
+     */
+    @Test
+    public void testPrune() throws Exception {
+
+        List<Object> full = parseLines( runCompact() );
+        List<String> prunedLines = runCompact( DocletOptions.Prune );
+        List<Object> pruned = parseLines( prunedLines );
+
+        assertTrue( StringUtils.join(prunedLines, "").length() < StringUtils.join(runCompact(), "").length() );
+        assertTrue( "no all-empty objects to prune", countAllEmptyMaps(full) > 0 );
+
+        for (int i=0; i < full.size(); ++i) {
+            assertEquals( prune( full.get(i) ), pruned.get(i) );
+        }
+    }
+
+    /**
+     * @return the given JSON value, with null, [] and all-empty {} object entries removed
+     *         (like JSONWriter's prune mode, but as a copy).
+     */
+    protected Object prune(Object value) {
+        if (value instanceof Map) {
+            JSONObject retMe = new JSONObject();
+            for (Object entryObj : ((Map) value).entrySet()) {
+                Map.Entry entry = (Map.Entry) entryObj;
+                Object prunedValue = prune( entry.getValue() );
+                if ( !(prunedValue == null
+                        || (prunedValue instanceof List && ((List) prunedValue).isEmpty())
+                        || (prunedValue instanceof Map && ((Map) prunedValue).isEmpty())) ) {
+                    retMe.put( entry.getKey(), prunedValue );
+                }
+            }
+            return retMe;
+        } else if (value instanceof List) {
+            JSONArray retMe = new JSONArray();
+            for (Object item : (List) value) {
+                retMe.add( prune(item) );
+            }
+            return retMe;
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of non-empty objects in the given JSON value whose values are all 
+     *         null or []
+     */
+    protected int countAllEmptyMaps(Object value) {
+        int retMe = 0;
+        if (value instanceof Map) {
+            boolean allEmpty = !((Map) value).isEmpty();
+            for (Object mapValue : ((Map) value).values()) {
+                allEmpty &= (mapValue == null || (mapValue instanceof List && ((List) mapValue).isEmpty()));
+                retMe += countAllEmptyMaps(mapValue);
+            }
+            retMe += (allEmpty) ? 1 : 0;
+        } else if (value instanceof List) {
+            for (Object item : (List) value) {
+                retMe += countAllEmptyMaps(item);
+            }
+        }
+        return retMe;
+    }
+
+    /**
+     * @return the output lines of the doclet, run in -compact mode with the given options.
+     */
+    protected List<String> runCompact(String... docletOptions) throws Exception {
+        return runCompact( new File("src/test/java"), docletOptions );
+    }
+
+    /**
+     * @return the output lines of the doclet, run against the given sourcePath in -compact 
+     *         mode with the given options.
+     */
+    protected List<String> runCompact(File sourcePath, String... docletOptions) throws Exception {
+
+        StreamCollector streamCollector = new StreamCollector();
+
+        new SimpleJavadocProcess()
+                    .setDocletClass( JsonDoclet.class )
+                    .setSourcePath( sourcePath )
+                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                    .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                    .setDocletOptions( Arrays.asList( docletOptions ) )
+                    .setQuiet(true)
+                    .buildProcessHelper()
+                    .addObserver( Stream.STDOUT, streamCollector )
+                    .spawnStreamReaders()
+                    .waitFor();
+
+        assertEquals( ExpectedTestJavadocSize, streamCollector.getOutput().size() );
+
+        return new ArrayList<String>( streamCollector.getOutput() );
+    }
+
+    /**
+     * -incrementalDir serves unchanged classes from the store on the next run, with
+     * the same output.
+     */
+    @Test
+    public void testIncrementalDir() throws Exception {
+
+        File incrementalDir = new File("target/JsonDocletTest.testIncrementalDir");
+        FileUtils.deleteQuietly( incrementalDir );
+
+        List<String> first = runCompact( DocletOptions.IncrementalDir, incrementalDir.getPath() );
+        JSONObject firstManifest = readRunManifest(incrementalDir);
+
+        assertEquals( 0L, firstManifest.get("reused") );
+        assertTrue( (Long) firstManifest.get("regenerated") > 0 );
+
+        List<String> second = runCompact( DocletOptions.IncrementalDir, incrementalDir.getPath() );
+        JSONObject secondManifest = readRunManifest(incrementalDir);
+
+        assertEquals( firstManifest.get("regenerated"), secondManifest.get("reused") );
+        assertEquals( 0L, secondManifest.get("regenerated") );
+
+        assertEquals( parseLines(first), parseLines(second) );
+        assertEquals( parseLines( runCompact() ), parseLines(second) );
+    }
+
+    /**
+     * A change to a class invalidates the stored docs of its subtypes (which inherit 
+     * from it) and of the classes that refer to it, but nothing else.
+     */
+    @Test
+    public void testIncrementalDirInvalidatesDependents() throws Exception {
+
+        File testDir = new File("target/JsonDocletTest.testIncrementalDirInvalidatesDependents");
+        FileUtils.deleteQuietly( testDir );
+
+        File sourcePath = new File(testDir, "src");
+        File incrementalDir = new File(testDir, "incremental");
+        FileUtils.copyDirectory( new File("src/test/java/com/rga78/javadoc/test"), new File(sourcePath, "com/rga78/javadoc/test") );
+
+        runCompact( sourcePath, DocletOptions.IncrementalDir, incrementalDir.getPath() );
+        long classCount = (Long) readRunManifest(incrementalDir).get("regenerated");
+
+        // DemoJavadocSubClass inherits someAbstractMethod's comment from DemoJavadoc.
+        File superclassFile = new File(sourcePath, "com/rga78/javadoc/test/DemoJavadoc.java");
+        FileUtils.write( superclassFile, FileUtils.readFileToString(superclassFile).replace("This is an abstract method.", "This is a changed abstract method.") );
+
+        List<String> output = runCompact( sourcePath, DocletOptions.IncrementalDir, incrementalDir.getPath() );
+        JSONObject manifest = readRunManifest(incrementalDir);
+
+        assertTrue( (Long) manifest.get("invalidated") >= 2 );      // DemoJavadocSubClass and DemoJavadocSubClass2, at least
+        assertTrue( (Long) manifest.get("reused") > 0 );            // e.g. DemoInterface2 doesn't depend on DemoJavadoc
+        assertEquals( classCount, (Long) manifest.get("reused") + (Long) manifest.get("regenerated") );
+
+        assertEquals( parseLines( runCompact(sourcePath) ), parseLines(output) );
+
+        boolean found = false;
+        for (Object doc : parseLines(output)) {
+            if ("com.rga78.javadoc.test.DemoJavadocSubClass.someAbstractMethod".equals( ((Map) doc).get("qualifiedName") )) {
+                assertTrue( ((String) ((Map) doc).get("commentText")).contains("This is a changed abstract method.") );
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * The superclass and interface type closures are most-derived first, unique, and
+     * built from the superclass's (memoized) closure.
+     */
+    @Test
+    public void testAllSuperclassAndInterfaceTypes() throws Exception {
+
+        List<Object> docs = parseLines( runCompact() );
+
+        Map subClass2 = findDoc(docs, "class", "com.rga78.javadoc.test.DemoJavadocSubClass2");
+
+        assertEquals( Arrays.asList( "com.rga78.javadoc.test.DemoJavadocSubClass", "com.rga78.javadoc.test.DemoJavadoc", "java.lang.Object" ),
+                      getQualifiedTypeNames( (List<Map>) subClass2.get("allSuperclassTypes") ) );
+
+        // Serializable is implemented by both DemoJavadocSubClass2 and DemoJavadocSubClass; listed once.
+        assertEquals( Arrays.asList( "java.io.Serializable", "java.util.concurrent.Callable", "com.rga78.javadoc.test.DemoInterface" ),
+                      getQualifiedTypeNames( (List<Map>) subClass2.get("allInterfaceTypes") ) );
+
+        // An interface's "superclasses" are all the interfaces it extends.
+        Map subIntf = findDoc(docs, "interface", "com.rga78.javadoc.test.DemoInterfaceSubIntf");
+
+        assertEquals( Arrays.asList( "com.rga78.javadoc.test.DemoInterface", "com.rga78.javadoc.test.DemoInterface2" ),
+                      getQualifiedTypeNames( (List<Map>) subIntf.get("allSuperclassTypes") ) );
+
+        // Each class's closure is its superclass type followed by the superclass's closure.
+        for (String qualifiedName : Arrays.asList( "com.rga78.javadoc.test.DemoJavadocSubClass2", "com.rga78.javadoc.test.DemoJavadocSubClass" )) {
+            Map classDoc = findDoc(docs, "class", qualifiedName);
+            Map superclassDoc = findDoc(docs, "class", (String) ((Map) classDoc.get("superclassType")).get("qualifiedTypeName"));
+
+            List<Map> expected = new ArrayList<Map>();
+            expected.add( (Map) classDoc.get("superclassType") );
+            expected.addAll( (List<Map>) superclassDoc.get("allSuperclassTypes") );
+
+            assertEquals( getQualifiedTypeNames(expected), getQualifiedTypeNames( (List<Map>) classDoc.get("allSuperclassTypes") ) );
+        }
+    }
+
+    /**
+     * Inherited methods are grouped by superclass, most-derived first, and exclude
+     * methods overridden by the class or by a nearer superclass.
+     */
+    @Test
+    public void testAllInheritedMethods() throws Exception {
+
+        List<Object> docs = parseLines( runCompact() );
+
+        List<Map> allInheritedMethods = (List<Map>) findDoc(docs, "class", "com.rga78.javadoc.test.DemoJavadocSubClass2").get("allInheritedMethods");
+
+        assertEquals( 3, allInheritedMethods.size() );
+
+        assertEquals( "com.rga78.javadoc.test.DemoJavadocSubClass", ((Map) allInheritedMethods.get(0).get("superclassType")).get("qualifiedTypeName") );
+        assertEquals( Arrays.asList( "someAbstractMethod", "parse", "call", "interfaceMethod" ),
+                      getNames( (List<Map>) allInheritedMethods.get(0).get("inheritedMethods") ) );
+
+        // DemoJavadoc.someAbstractMethod, parse and call() are overridden by DemoJavadocSubClass; call(String) is not.
+        assertEquals( "com.rga78.javadoc.test.DemoJavadoc", ((Map) allInheritedMethods.get(1).get("superclassType")).get("qualifiedTypeName") );
+        assertEquals( Arrays.asList( "getAnnotation", "someStaticMethod", "methodWithTypes", "call", "toString" ),
+                      getNames( (List<Map>) allInheritedMethods.get(1).get("inheritedMethods") ) );
+
+        // Object.toString is overridden by DemoJavadoc.
+        assertEquals( "java.lang.Object", ((Map) allInheritedMethods.get(2).get("superclassType")).get("qualifiedTypeName") );
+        assertEquals( Arrays.asList( "getClass", "hashCode", "equals", "clone", "notify", "notifyAll", "wait", "wait", "wait", "finalize" ),
+                      getNames( (List<Map>) allInheritedMethods.get(2).get("inheritedMethods") ) );
+    }
+
+    /**
+     * MethodIndex only calls overrides() on methods with the same name and parameter count.
+     */
+    @Test
+    public void testMethodIndexChecksOnlySameKeyCandidates() {
+
+        Mockery mockery = new JUnit4Mockery();
+
+        final MethodDoc fooMethod = mockery.mock(MethodDoc.class, "fooMethod");
+        final MethodDoc fooMethod2 = mockery.mock(MethodDoc.class, "fooMethod2");
+        final MethodDoc barMethod = mockery.mock(MethodDoc.class, "barMethod");
+        final MethodDoc superFooMethod = mockery.mock(MethodDoc.class, "superFooMethod");
+
+        mockery.checking(new Expectations() {
+            {
+                allowing(fooMethod).name(); will(returnValue("foo"));
+                allowing(fooMethod).parameters(); will(returnValue(new Parameter[1]));
+
+                allowing(fooMethod2).name(); will(returnValue("foo"));
+                allowing(fooMethod2).parameters(); will(returnValue(new Parameter[2]));
+
+                allowing(barMethod).name(); will(returnValue("bar"));
+                allowing(barMethod).parameters(); will(returnValue(new Parameter[1]));
+
+                allowing(superFooMethod).name(); will(returnValue("foo"));
+                allowing(superFooMethod).parameters(); will(returnValue(new Parameter[1]));
+
+                oneOf(fooMethod).overrides(superFooMethod); will(returnValue(true));
+                never(fooMethod2).overrides(superFooMethod);
+                never(barMethod).overrides(superFooMethod);
+            }
+        });
+
+        MethodIndex methodIndex = new MethodIndex().addAll( new MethodDoc[] { barMethod, fooMethod2, fooMethod } );
+
+        assertEquals( Arrays.asList(fooMethod), methodIndex.getCandidates(superFooMethod) );
+        assertTrue( methodIndex.containsOverrideOf(superFooMethod) );
+
+        mockery.assertIsSatisfied();
+    }
+
+    /**
+     * specifiedByMethod is the interface method a class method implements, if any.
+     */
+    @Test
+    public void testSpecifiedByMethod() throws Exception {
+
+        List<Object> docs = parseLines( runCompact() );
+
+        Map interfaceMethod = findDoc(docs, "method", "com.rga78.javadoc.test.DemoJavadocSubClass.interfaceMethod");
+        assertEquals( "com.rga78.javadoc.test.DemoInterface.interfaceMethod", ((Map) interfaceMethod.get("specifiedByMethod")).get("qualifiedName") );
+        assertEquals( "Interface documentation for the method interfaceMethod.", interfaceMethod.get("commentText") );
+
+        Map call = findDoc(docs, "method", "com.rga78.javadoc.test.DemoJavadocSubClass.call");
+        assertEquals( "java.util.concurrent.Callable.call", ((Map) call.get("specifiedByMethod")).get("qualifiedName") );
+
+        // Overrides a class method, not an interface method.
+        assertEquals( null, findDoc(docs, "method", "com.rga78.javadoc.test.DemoJavadocSubClass.parse").get("specifiedByMethod") );
+        assertEquals( null, findDoc(docs, "method", "com.rga78.javadoc.test.DemoJavadocSubClass.someAbstractMethod").get("specifiedByMethod") );
+    }
+
+    /**
+     * An overriding method with no @throws tags inherits them from the overridden method.
+     */
+    @Test
+    public void testInheritThrowsTags() throws Exception {
+
+        List<Object> docs = parseLines( runCompact() );
+
+        // DemoJavadocSubClass.parse has no javadoc; DemoJavadoc.parse has a @throws and an @exception tag.
+        List<Map> throwsTags = (List<Map>) findDoc(docs, "method", "com.rga78.javadoc.test.DemoJavadocSubClass.parse").get("throwsTags");
+
+        assertEquals( 2, throwsTags.size() );
+
+        assertEquals( "IOException", throwsTags.get(0).get("exceptionName") );
+        assertEquals( "I/O error during conetnts retrieving.", throwsTags.get(0).get("exceptionComment") );
+
+        assertEquals( "IllegalArgumentException", throwsTags.get(1).get("exceptionName") );
+        assertEquals( "This one uses the exception tag.", throwsTags.get(1).get("exceptionComment") );
+    }
+
+    /**
+     * @return the name of each of the given docs
+     */
+    protected List<String> getNames(List<Map> docs) {
+        List<String> retMe = new ArrayList<String>();
+        for (Map doc : docs) {
+            retMe.add( (String) doc.get("name") );
+        }
+        return retMe;
+    }
+
+    /**
+     * @return the qualifiedTypeName of each of the given types
+     */
+    protected List<String> getQualifiedTypeNames(List<Map> types) {
+        List<String> retMe = new ArrayList<String>();
+        for (Map type : types) {
+            retMe.add( (String) type.get("qualifiedTypeName") );
+        }
+        return retMe;
+    }
+
+    /**
+     * @return the doc with the given metaType and qualifiedName
+     */
+    protected Map findDoc(List<Object> docs, String metaType, String qualifiedName) {
+        for (Object doc : docs) {
+            if (metaType.equals( ((Map) doc).get("metaType") ) && qualifiedName.equals( ((Map) doc).get("qualifiedName") )) {
+                return (Map) doc;
+            }
+        }
+        throw new AssertionError("No " + metaType + " doc for " + qualifiedName);
+    }
+
+    /**
+     * @return the run manifest in the given incremental dir
+     */
+    protected JSONObject readRunManifest(File incrementalDir) throws Exception {
+        return (JSONObject) new JSONParser().parse( FileUtils.readFileToString( new File(incrementalDir, IncrementalStore.RunManifestFileName) ) );
+    }
+
+    /**
+     * @return the given JSON lines, parsed
+     */
+    protected List<Object> parseLines(List<String> lines) throws Exception {
+        List<Object> retMe = new ArrayList<Object>();
+        for (String line : lines) {
+            retMe.add( new JSONParser().parse(line) );
+        }
+        return retMe;
+    }
+
+    /**
+     * -refs writes each stub once, as a symbol, before the first document that refers to it.
+     */
+    @Test
+    public void testRefs() throws Exception {
+
+        File sourcePath = new File("src/test/java");
+        
+        StreamCollector streamCollector = new StreamCollector();
+
+        new SimpleJavadocProcess()
+                    .setDocletClass( JsonDoclet.class )
+                    .setSourcePath( sourcePath )
+                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                    .setDocletOptions( Arrays.asList( DocletOptions.Compact, DocletOptions.Refs ) )
+                    .setQuiet(true)
+                    .buildProcessHelper()
+                    .addObserver( Stream.STDOUT, streamCollector )
+                    .spawnStreamReaders()
+                    .waitFor();
+    
+        Log.trace(this, "testRefs: ", streamCollector.getOutput());
+
+        Set<String> ids = new HashSet<String>();
+        int docCount = 0;
+
+        for (String line : streamCollector.getOutput()) {
+            JSONObject obj = (JSONObject) new JSONParser().parse( line );
+
+            for (String ref : findRefs(obj, new ArrayList<String>())) {
+                assertTrue( "undefined $ref: " + ref, ids.contains(ref) );
+            }
+
+            if ("symbol".equals(obj.get("metaType"))) {
+                assertTrue( ids.add( (String) obj.get("$id") ) );
+            } else {
+                ++docCount;
+            }
+        }
+
+        assertFalse( ids.isEmpty() );
+        assertEquals( ExpectedTestJavadocSize, docCount );
+    }
+
+    /**
+     * @return all "$ref" values found in the given JSON value
+     */
+    protected List<String> findRefs(Object obj, List<String> refs) {
+        if (obj instanceof Map) {
+            for (Object entry : ((Map) obj).entrySet()) {
+                if ("$ref".equals( ((Map.Entry) entry).getKey() )) {
+                    refs.add( (String) ((Map.Entry) entry).getValue() );
+                } else {
+                    findRefs( ((Map.Entry) entry).getValue(), refs );
+                }
+            }
+        } else if (obj instanceof List) {
+            for (Object item : (List) obj) {
+                findRefs(item, refs);
+            }
+        }
+        return refs;
+    }
+    
+    /**
+     * -outputDir writes one file per package, plus a manifest.
+     */
+    @Test
+    public void testOutputDir() throws Exception {
+
+        File sourcePath = new File("src/test/java");
+        File outputDir = new File("target/JsonDocletTest.testOutputDir");
+        FileUtils.deleteQuietly( outputDir );
+
+        new SimpleJavadocProcess()
+                    .setDocletClass( JsonDoclet.class )
+                    .setSourcePath( sourcePath )
+                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                    .setDocletOptions( Arrays.asList( DocletOptions.Compact, DocletOptions.OutputDir, outputDir.getPath() ) )
+                    .setQuiet(true)
+                    .run();
+
+        JSONObject manifest = (JSONObject) new JSONParser().parse( FileUtils.readFileToString( new File(outputDir, ShardedDocumentSink.ManifestFileName) ) );
+        assertEquals( Boolean.TRUE, manifest.get("complete") );
+
+        JSONArray shards = (JSONArray) manifest.get("shards");
+        assertEquals( 1, shards.size() );
+
+        JSONObject shard = (JSONObject) shards.get(0);
+        assertEquals( "com.rga78.javadoc.test", shard.get("package") );
+        assertEquals( (long) ExpectedTestJavadocSize, shard.get("objectCount") );
+
+        File shardFile = new File(outputDir, (String) shard.get("file"));
+        assertEquals( shard.get("bytes"), shardFile.length() );
+        assertEquals( ExpectedTestJavadocSize, FileUtils.readLines( shardFile ).size() );
+    }
+
+    /**
+     * -refs -outputDir makes each shard self-contained: every $ref in a shard resolves
+     * to a symbol written earlier in the same shard, even for stubs (and the stubs they
+     * refer to) that were first defined in an earlier shard.
+     */
+    @Test
+    public void testRefsOutputDir() throws Exception {
+
+        File sourcePath = new File("src/test/java");
+        File outputDir = new File("target/JsonDocletTest.testRefsOutputDir");
+        FileUtils.deleteQuietly( outputDir );
+
+        new SimpleJavadocProcess()
+                    .setDocletClass( JsonDoclet.class )
+                    .setSourcePath( sourcePath )
+                    .setPackages( Arrays.asList( "com.rga78.javadoc.test", "com.rga78.coll", "com.rga78.json" ) )
+                    .setDocletOptions( Arrays.asList( DocletOptions.Compact, DocletOptions.Refs, DocletOptions.OutputDir, outputDir.getPath() ) )
+                    .setQuiet(true)
+                    .run();
+
+        JSONObject manifest = (JSONObject) new JSONParser().parse( FileUtils.readFileToString( new File(outputDir, ShardedDocumentSink.ManifestFileName) ) );
+        JSONArray shards = (JSONArray) manifest.get("shards");
+        assertEquals( 3, shards.size() );
+
+        for (Object shard : shards) {
+            File shardFile = new File(outputDir, (String) ((JSONObject) shard).get("file"));
+
+            Set<String> ids = new HashSet<String>();
+
+            for (String line : FileUtils.readLines( shardFile )) {
+                JSONObject obj = (JSONObject) new JSONParser().parse( line );
+
+                for (String ref : findRefs(obj, new ArrayList<String>())) {
+                    assertTrue( "undefined $ref in " + shardFile + ": " + ref, ids.contains(ref) );
+                }
+
+                if ("symbol".equals(obj.get("metaType"))) {
+                    assertTrue( ids.add( (String) obj.get("$id") ) );
+                }
+            }
+        }
+    }
+    
     /**
      * 
      */
@@ -145,6 +732,47 @@ public class JsonDocletTest {
 
     }
 
-}
+    /**
+     * The parent's inherited doc is resolved once and reused by all children.
+     */
+    @Test
+    public void testGetInheritedCommentTextMemoized() throws Exception {
+        
+        Mockery mockery = new JUnit4Mockery();
+        
+        final MethodDoc childDoc1 = mockery.mock(MethodDoc.class, "childDoc1");
+        final MethodDoc childDoc2 = mockery.mock(MethodDoc.class, "childDoc2");
+        final MethodDoc parentDoc = mockery.mock(MethodDoc.class, "parentDoc");
+        
+        mockery.checking(new Expectations() {
+            {
+                oneOf(childDoc1).overriddenMethod();
+                will(returnValue(parentDoc));
+                
+                oneOf(childDoc2).overriddenMethod();
+                will(returnValue(parentDoc));
+                
+                oneOf(childDoc1).commentText();
+                will(returnValue("childDoc1 commentText: {@inheritDoc}"));
+                
+                oneOf(childDoc2).commentText();
+                will(returnValue(""));
+                
+                // Only called once.
+                oneOf(parentDoc).commentText();
+                will(returnValue("parentDoc commentText"));
+            }
+        });
+
+        JsonDoclet jsonDoclet = new JsonDoclet(null);
+        
+        assertEquals( "childDoc1 commentText: parentDoc commentText",
+                      jsonDoclet.getInheritedCommentText(childDoc1, null) );
+
+        assertEquals( "parentDoc commentText",
+                      jsonDoclet.getInheritedCommentText(childDoc2, null) );
 
+        mockery.assertIsSatisfied();
+    }
 
+}
@@ -0,0 +1,65 @@
+package com.rga78.javadoc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class ShardPlannerTest {
+
+    /**
+     * Write a source file under the given source root.
+     */
+    private void writeSource(File sourcePath, String packageName, String className, String source) throws Exception {
+        File file = new File(sourcePath, packageName.replace('.', '/') + "/" + className + ".java");
+        FileUtils.writeStringToFile(file, "package " + packageName + ";\n" + source);
+    }
+
+    /**
+     * p.a and p.b extend each other's types, so they stay together.  p.c is big and
+     * gets its own shard.  p.d depends on p.a but isn't part of the cycle.
+     */
+    @Test
+    public void testPlan() throws Exception {
+
+        File sourcePath = new File("target/ShardPlannerTest.testPlan");
+        FileUtils.deleteQuietly( sourcePath );
+
+        writeSource(sourcePath, "p.a", "A", "import p.b.B;\n public class A extends B<String> { }");
+        writeSource(sourcePath, "p.a", "I", "public interface I { }");
+        writeSource(sourcePath, "p.b", "B", "import p.a.*;\n /** extends p.c.C */ public class B<T extends Comparable<T>> implements I { }");
+        writeSource(sourcePath, "p.c", "C", "public class C { /* " + StringUtils.repeat("x", 4096) + " */ }");
+        writeSource(sourcePath, "p.d", "D", "public class D extends p.a.A implements java.io.Serializable { }");
+
+        ShardPlanner shardPlanner = new ShardPlanner(sourcePath);
+
+        List<String> packages = shardPlanner.expandSubpackage("p");
+        assertEquals( Arrays.asList( "p.a", "p.b", "p.c", "p.d" ), packages );
+
+        shardPlanner.scan(packages);
+
+        assertEquals( new HashSet<String>( Arrays.asList( "p.b" ) ), shardPlanner.getDependencies("p.a") );
+        assertEquals( new HashSet<String>( Arrays.asList( "p.a" ) ), shardPlanner.getDependencies("p.b") );
+        assertEquals( new HashSet<String>(), shardPlanner.getDependencies("p.c") );
+        assertEquals( new HashSet<String>( Arrays.asList( "p.a" ) ), shardPlanner.getDependencies("p.d") );
+
+        List<List<String>> shards = shardPlanner.plan(2);
+
+        assertEquals( 2, shards.size() );
+        assertEquals( Arrays.asList( "p.c" ), shards.get(0) );
+        assertEquals( Arrays.asList( "p.a", "p.b", "p.d" ), shards.get(1) );
+
+        // More shards than groups: empty shards are dropped.
+        assertEquals( 3, shardPlanner.plan(8).size() );
+    }
+
+}
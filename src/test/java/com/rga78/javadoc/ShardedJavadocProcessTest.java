@@ -0,0 +1,232 @@
+package com.rga78.javadoc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.rga78.junit.CaptureSystemOutRule;
+import com.rga78.proc.ProcessException;
+import com.rga78.proc.ProcessHelper;
+
+/**
+ * 
+ */
+public class ShardedJavadocProcessTest {
+    
+    /**
+     * Capture and suppress stdout unless the test fails.
+     */
+    @Rule
+    public CaptureSystemOutRule systemOutRule  = new CaptureSystemOutRule( );
+
+    /**
+     * 
+     */
+    @Test
+    public void testBuildShardProcesses() throws Exception {
+
+        List<SimpleJavadocProcess> shardProcesses = new ShardedJavadocProcess()
+                                                            .setSourcePath( new File("src/test/java") )
+                                                            .setPackages( Arrays.asList( "a", "b", "c" ) )
+                                                            .setSubpackages( Arrays.asList( "d" ) )
+                                                            .setShardCount(2)
+                                                            .setMaxHeap("512m")
+                                                            .setOutputDir( new File("target/out") )
+                                                            .buildShardProcesses();
+
+        assertEquals( 2, shardProcesses.size() );
+        assertEquals( Arrays.asList( "a", "b" ), shardProcesses.get(0).getPackages() );
+        assertEquals( Arrays.asList( "c" ), shardProcesses.get(1).getPackages() );
+        assertEquals( Arrays.asList( "d" ), shardProcesses.get(1).getSubpackages() );
+        assertEquals( "512m", shardProcesses.get(1).getMaxHeap() );
+
+        List<String> command = shardProcesses.get(1).buildCommand();
+        assertTrue( command.contains( "-J-Xmx512m" ) );
+        assertEquals( new File("target/out", ShardedJavadocProcess.ShardDirPrefix + "1").getPath(), 
+                      command.get( command.indexOf( DocletOptions.OutputDir ) + 1 ) );
+    }
+    
+    /**
+     * The same package in two shards is only merged once.
+     */
+    @Test
+    public void testRun() throws Exception {
+
+        File outputDir = new File("target/ShardedJavadocProcessTest.testRun");
+        FileUtils.deleteQuietly( outputDir );
+
+        ShardedJavadocProcess shardedJavadocProcess = new ShardedJavadocProcess()
+                                                            .setSourcePath( new File("src/test/java") )
+                                                            .setPackages( Arrays.asList( "com.rga78.javadoc.test", "com.rga78.coll", "com.rga78.coll" ) )
+                                                            .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                                            .setQuiet(true)
+                                                            .setShardCount(2)
+                                                            .setParallelism(2)
+                                                            .setMaxHeap("512m")
+                                                            .setOutputDir( outputDir );
+
+        List<Map> shards = shardedJavadocProcess.run();
+
+        assertEquals( 2, shards.size() );
+        assertEquals( "com.rga78.javadoc.test", shards.get(0).get("package") );
+        assertEquals( "com.rga78.coll", shards.get(1).get("package") );
+        assertEquals( (long) JsonDocletTest.ExpectedTestJavadocSize, shards.get(0).get("objectCount") );
+
+        assertTrue( new File(outputDir, ShardedDocumentSink.ManifestFileName).exists() );
+        assertFalse( new File(outputDir, ShardedJavadocProcess.ShardDirPrefix + "0").exists() );
+        assertFalse( new File(outputDir, ShardedJavadocProcess.ShardDirPrefix + "1").exists() );
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        shardedJavadocProcess.writeTo(bos);
+
+        long expectedLines = (Long) shards.get(0).get("objectCount") + (Long) shards.get(1).get("objectCount");
+        assertEquals( expectedLines, bos.toString().split("\n").length );
+    }
+
+    /**
+     * The first shard to fail (com.rga78.coll, on the bad option) fails the run, without
+     * waiting for the shards before it, and the shards still running are interrupted.
+     */
+    @Test(timeout = 60000)
+    public void testRunFailsFast() throws Exception {
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        ShardedJavadocProcess shardedJavadocProcess = new ShardedJavadocProcess() {
+            @Override
+            protected Callable<ProcessHelper> buildShardRunnable(SimpleJavadocProcess shardProcess, LiveProcesses liveProcesses) {
+                if (!shardProcess.getPackages().contains("com.rga78.javadoc.test")) {
+                    return super.buildShardRunnable(shardProcess, liveProcesses);
+                }
+                // A shard that never finishes on its own.
+                return new Callable<ProcessHelper>() {
+                    public ProcessHelper call() throws Exception {
+                        try {
+                            new CountDownLatch(1).await();
+                            return null;
+                        } catch (InterruptedException ie) {
+                            interrupted.countDown();
+                            throw ie;
+                        }
+                    }
+                };
+            }
+        };
+
+        File outputDir = new File("target/ShardedJavadocProcessTest.testRunFailsFast");
+        FileUtils.deleteQuietly( outputDir );
+
+        shardedJavadocProcess.setSourcePath( new File("src/test/java") )
+                             .setPackages( Arrays.asList( "com.rga78.javadoc.test", "com.rga78.coll" ) )
+                             .setDocletOptions( Arrays.asList( "-noSuchOption" ) )
+                             .setQuiet(true)
+                             .setShardCount(2)
+                             .setParallelism(2)
+                             .setMaxHeap("512m")
+                             .setOutputDir( outputDir );
+
+        try {
+            shardedJavadocProcess.run();
+            fail("expected ProcessException");
+        } catch (ProcessException pe) {
+            // expected.
+        }
+
+        assertTrue( interrupted.await(10, TimeUnit.SECONDS) );
+    }
+
+    /**
+     * A shard process that's added after destroyAll is destroyed right away.
+     */
+    @Test
+    public void testLiveProcesses() throws Exception {
+
+        ShardedJavadocProcess.LiveProcesses liveProcesses = new ShardedJavadocProcess.LiveProcesses();
+
+        ProcessHelper running = new ProcessHelper( new ProcessBuilder( "sleep", "60" ).start() );
+        assertTrue( liveProcesses.add( running ) );
+
+        liveProcesses.destroyAll();
+        assertTrue( running.getProcess().waitFor() != 0 );
+
+        ProcessHelper late = new ProcessHelper( new ProcessBuilder( "sleep", "60" ).start() );
+        assertFalse( liveProcesses.add( late ) );
+        assertTrue( late.getProcess().waitFor() != 0 );
+    }
+
+    /**
+     * Sharding doesn't change the output, even for type hierarchies that cross packages
+     * in different shards (com.rga78.javadoc.test2 extends com.rga78.javadoc.test):
+     * each package's file is byte-identical to a single javadoc run's.
+     */
+    @Test
+    public void testRunMatchesSingleProcess() throws Exception {
+        assertRunMatchesSingleProcess( false, new File("target/ShardedJavadocProcessTest.testRunMatchesSingleProcess") );
+    }
+
+    /**
+     * Same as testRunMatchesSingleProcess, with the shards planned by ShardPlanner.
+     */
+    @Test
+    public void testPlannedRunMatchesSingleProcess() throws Exception {
+        assertRunMatchesSingleProcess( true, new File("target/ShardedJavadocProcessTest.testPlannedRunMatchesSingleProcess") );
+    }
+
+    /**
+     * Run the packages sharded and in a single javadoc process, under the given dir,
+     * and assert each package's file is byte-identical.
+     */
+    protected void assertRunMatchesSingleProcess(boolean planShards, File dir) throws Exception {
+
+        List<String> packages = Arrays.asList( "com.rga78.javadoc.test2", "com.rga78.javadoc.test", "com.rga78.coll" );
+
+        File shardedOutputDir = new File(dir, "sharded");
+        File singleOutputDir = new File(dir, "single");
+        FileUtils.deleteQuietly( dir );
+
+        List<Map> shards = new ShardedJavadocProcess()
+                                    .setSourcePath( new File("src/test/java") )
+                                    .setPackages( packages )
+                                    .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                    .setQuiet(true)
+                                    .setShardCount(3)
+                                    .setParallelism(3)
+                                    .setPlanShards(planShards)
+                                    .setMaxHeap("512m")
+                                    .setOutputDir( shardedOutputDir )
+                                    .run();
+
+        new SimpleJavadocProcess()
+                    .setSourcePath( new File("src/test/java") )
+                    .setPackages( packages )
+                    .setDocletOptions( Arrays.asList( DocletOptions.Compact, DocletOptions.OutputDir, singleOutputDir.getPath() ) )
+                    .setQuiet(true)
+                    .run();
+
+        assertEquals( 3, shards.size() );
+
+        for (Map shard : shards) {
+            String fileName = (String) shard.get("file");
+
+            assertTrue( (Long) shard.get("objectCount") > 0 );
+            assertEquals( "package " + shard.get("package"),
+                          FileUtils.readFileToString( new File(singleOutputDir, fileName) ),
+                          FileUtils.readFileToString( new File(shardedOutputDir, fileName) ) );
+        }
+    }
+
+}
@@ -2,12 +2,16 @@ package com.rga78.javadoc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -89,6 +93,84 @@ public class SimpleJavadocProcessTest {
         assertEquals(expectedCommand, javadocProcess.buildCommand());
     }
 
+    /**
+     * Everything but the -J options goes in the @argfile.
+     */
+    @Test
+    public void testBuildCommandWithArgFile() throws Exception {
+        
+        File sourcePath = new File("src/test/java");
+        SimpleJavadocProcess javadocProcess = new SimpleJavadocProcess()
+                                                    .setSourcePath( sourcePath )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                    .setSourceFiles( Arrays.asList( new File(sourcePath, "com/rga78/coll/CawlsTest.java") ) )
+                                                    .setArgFileThreshold(0);
+
+        SimpleJavadocProcess.JavadocCommand javadocCommand = javadocProcess.useArgFileIfNeeded( javadocProcess.buildCommand() );
+        List<String> command = javadocCommand.getCommand();
+
+        assertEquals( 4, command.size() );
+        assertEquals( Arrays.asList( "javadoc", "-J-Xms1024m", "-J-Xmx4096m" ), command.subList(0, 3) );
+        assertTrue( command.get(3).startsWith("@") );
+
+        assertEquals( javadocCommand.getArgFile().getCanonicalPath(), command.get(3).substring(1) );
+
+        List<String> argFileLines = FileUtils.readLines( javadocCommand.getArgFile() );
+        assertEquals( "\"-docletpath\"", argFileLines.get(0) );
+        assertEquals( "\"com.rga78.javadoc.test\"", argFileLines.get( argFileLines.size() - 2 ) );
+        assertEquals( "\"" + new File(sourcePath, "com/rga78/coll/CawlsTest.java").getCanonicalPath() + "\"", 
+                      argFileLines.get( argFileLines.size() - 1 ) );
+
+        FileUtils.deleteQuietly( javadocCommand.getArgFile() );
+    }
+
+    /**
+     * Below the threshold, the command is left as is.
+     */
+    @Test
+    public void testBuildCommandBelowArgFileThreshold() throws Exception {
+        
+        SimpleJavadocProcess javadocProcess = new SimpleJavadocProcess()
+                                                    .setSourcePath( new File("src/test/java") )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) );
+
+        SimpleJavadocProcess.JavadocCommand javadocCommand = javadocProcess.useArgFileIfNeeded( javadocProcess.buildCommand() );
+
+        assertEquals( javadocProcess.buildCommand(), javadocCommand.getCommand() );
+        assertNull( javadocCommand.getArgFile() );
+    }
+
+    /**
+     * Each process gets its own @argfile, so one SimpleJavadocProcess can build
+     * several processes at once.
+     */
+    @Test
+    public void testJavadocWithArgFile() throws Exception {
+
+        SimpleJavadocProcess javadocProcess = new SimpleJavadocProcess()
+                                                    .setSourcePath( new File("src/test/java") )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                    .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                                    .setQuiet(true)
+                                                    .setArgFileThreshold(0);
+
+        StreamCollector streamCollector1 = new StreamCollector();
+        StreamCollector streamCollector2 = new StreamCollector();
+
+        ProcessHelper processHelper1 = javadocProcess.buildProcessHelper()
+                                                     .addObserver( Stream.STDOUT, streamCollector1 )
+                                                     .spawnStreamReaders();
+
+        ProcessHelper processHelper2 = javadocProcess.buildProcessHelper()
+                                                     .addObserver( Stream.STDOUT, streamCollector2 )
+                                                     .spawnStreamReaders();
+
+        assertEquals( 0, processHelper1.waitFor().exitValue() );
+        assertEquals( 0, processHelper2.waitFor().exitValue() );
+        assertEquals( JsonDocletTest.ExpectedTestJavadocSize, streamCollector1.getOutput().size() );
+        assertEquals( JsonDocletTest.ExpectedTestJavadocSize, streamCollector2.getOutput().size() );
+    }
+
     /**
      * 
      */
@@ -123,6 +205,75 @@ public class SimpleJavadocProcessTest {
     }
     
 
+    /**
+     * run() keeps the JSON on stdout for the caller, unless it goes to -outputDir.
+     */
+    @Test
+    public void testRunStdoutCapture() throws Exception {
+
+        File sourcePath = new File("src/test/java");
+
+        ProcessHelper processHelper = new SimpleJavadocProcess()
+                                                    .setSourcePath( sourcePath )
+                                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                                    .setDocletOptions( Arrays.asList( DocletOptions.Compact ) )
+                                                    .setQuiet(true)
+                                                    .run();
+
+        assertEquals( 0, processHelper.exitValue() );
+        assertEquals( JsonDocletTest.ExpectedTestJavadocSize, processHelper.getStdout().size() );
+
+        File outputDir = new File("target/SimpleJavadocProcessTest.testRunStdoutCapture");
+        FileUtils.deleteQuietly( outputDir );
+
+        processHelper = new SimpleJavadocProcess()
+                                    .setSourcePath( sourcePath )
+                                    .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                    .setDocletOptions( Arrays.asList( DocletOptions.Compact, DocletOptions.OutputDir, outputDir.getPath() ) )
+                                    .setQuiet(true)
+                                    .run();
+
+        assertEquals( 0, processHelper.exitValue() );
+        assertTrue( processHelper.getStdout().isEmpty() );
+        assertTrue( new File(outputDir, ShardedDocumentSink.ManifestFileName).isFile() );
+    }
+
+    /**
+     * The doclet hands its documents straight to the sink.
+     */
+    @Test
+    public void testJavadocInProcess() throws Exception {
+
+        final List<Map> docs = new ArrayList<Map>();
+        final List<String> packageEvents = new ArrayList<String>();
+
+        DocumentSink documentSink = new DocumentSink() {
+            public void startPackage(String packageName) {
+                packageEvents.add( "start:" + packageName );
+            }
+            public void write(Map doc) {
+                docs.add(doc);
+            }
+            public void endPackage(String packageName) {
+                packageEvents.add( "end:" + packageName );
+            }
+            public void close() {
+                packageEvents.add( "close" );
+            }
+        };
+
+        int exitCode = new SimpleJavadocProcess()
+                                .setSourcePath( new File("src/test/java") )
+                                .setPackages( Arrays.asList( "com.rga78.javadoc.test" ) )
+                                .setQuiet(true)
+                                .runInProcess( documentSink );
+
+        assertEquals( 0, exitCode );
+        assertEquals( JsonDocletTest.ExpectedTestJavadocSize, docs.size() );
+        assertEquals( "package", docs.get(docs.size()-1).get("metaType"));
+        assertEquals( Arrays.asList( "start:com.rga78.javadoc.test", "end:com.rga78.javadoc.test", "close" ), packageEvents );
+    }
+
     /**
      * 
      */
@@ -0,0 +1,18 @@
+package com.rga78.javadoc.test2;
+
+import com.rga78.javadoc.test.DemoInterface;
+
+/**
+ * An interface that extends an interface in another package.
+ */
+public interface DemoCrossPackageInterface extends DemoInterface {
+
+    /**
+     * A method whose parameter and return types are from another package.
+     *
+     * @param demoInterface  some parameter
+     *
+     * @return the given demoInterface
+     */
+    public DemoInterface crossPackageMethod(DemoInterface demoInterface);
+}
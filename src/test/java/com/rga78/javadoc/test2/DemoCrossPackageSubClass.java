@@ -0,0 +1,48 @@
+package com.rga78.javadoc.test2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+import com.rga78.javadoc.test.DemoInterface;
+import com.rga78.javadoc.test.DemoJavadocSubClass;
+
+/**
+ * A subclass in another package, for testing hierarchies that cross packages: {@inheritDoc}
+ */
+public class DemoCrossPackageSubClass extends DemoJavadocSubClass implements DemoCrossPackageInterface {
+
+    /**
+     * Overridden across packages, inherit doc: {@inheritDoc}
+     *
+     * @param strs inherit doc: {@inheritDoc}
+     *
+     * @return inherit doc: {@inheritDoc}
+     */
+    @Override
+    public int someAbstractMethod(String[] strs) {
+        return 1;
+    }
+
+    @Override
+    public InputStream parse(URL url, List<List> y) throws IOException, IllegalArgumentException {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void interfaceMethod(String parm1) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DemoInterface crossPackageMethod(DemoInterface demoInterface) {
+        return demoInterface;
+    }
+
+}
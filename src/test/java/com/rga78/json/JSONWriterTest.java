@@ -0,0 +1,144 @@
+package com.rga78.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class JSONWriterTest {
+
+    /**
+     * @return a small, ordered JSON model
+     */
+    protected Map buildModel() {
+        Map nested = new LinkedHashMap();
+        nested.put("name", "nested");
+        nested.put("list", Arrays.asList( "a", 1, true ));
+
+        Map map = new LinkedHashMap();
+        map.put("name", "top");
+        map.put("nested", nested);
+        map.put("empty", Arrays.asList());
+        map.put("nothing", null);
+        return map;
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testWrite() throws Exception {
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).write( buildModel() );
+
+        String expected = "{\n"
+                          + " \"name\": \"top\",\n"
+                          + " \"nested\": {\n"
+                          + "  \"name\": \"nested\",\n"
+                          + "  \"list\": [\n"
+                          + "   \"a\",\n"
+                          + "   1,\n"
+                          + "   true\n"
+                          + "  ]\n"
+                          + " },\n"
+                          + " \"empty\": [],\n"
+                          + " \"nothing\": null\n"
+                          + "}";
+
+        assertEquals( expected, sw.toString() );
+        assertEquals( expected, JSONTrace.prettyPrint( buildModel() ) );
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testWriteEscaped() throws Exception {
+        String s = "quote\" slash/ back\\ tab\t nl\n ctrl\u0001 del\u007F space\u2002 ok\u00e9";
+
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).write( s );
+
+        assertEquals( "\"" + JSONValue.escape(s) + "\"", sw.toString() );
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testCompact() throws Exception {
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).setCompact(true).write( buildModel() );
+
+        assertEquals( "{\"name\":\"top\",\"nested\":{\"name\":\"nested\",\"list\":[\"a\",1,true]},\"empty\":[],\"nothing\":null}",
+                      sw.toString() );
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testPruneEmpty() throws Exception {
+        Map allEmpty = new LinkedHashMap();
+        allEmpty.put("nothing", null);
+        allEmpty.put("empty", Arrays.asList());
+
+        Map model = buildModel();
+        model.put("allEmpty", allEmpty);
+
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).setCompact(true).setPruneEmpty(true).write( model );
+
+        assertEquals( "{\"name\":\"top\",\"nested\":{\"name\":\"nested\",\"list\":[\"a\",1,true]}}",
+                      sw.toString() );
+
+        sw = new StringWriter();
+        new JSONWriter(sw).setPruneEmpty(true).write( allEmpty );
+        assertEquals( "{}", sw.toString() );
+    }
+
+    /**
+     * SharedJSONObjects are encoded once per style; the cached encoding is reused.
+     */
+    @Test
+    public void testSharedJSONObject() throws Exception {
+        SharedJSONObject shared = new SharedJSONObject();
+        shared.put("name", "shared");
+        shared.freeze();
+
+        Map model = new LinkedHashMap();
+        model.put("a", shared);
+        model.put("b", Arrays.asList( shared ));
+
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).setCompact(true).write( model );
+
+        assertEquals( "{\"a\":{\"name\":\"shared\"},\"b\":[{\"name\":\"shared\"}]}", sw.toString() );
+        assertEquals( "{\"name\":\"shared\"}", shared.getEncoding( new JSONWriter(sw).setCompact(true).getStyle() ) );
+
+        // Pretty output depends on the indent level, so it's not cached.
+        assertNull( new JSONWriter(sw).getStyle() );
+
+        sw = new StringWriter();
+        new JSONWriter(sw).write( model );
+        assertTrue( sw.toString().contains( "\n  \"name\": \"shared\"\n" ) );
+    }
+
+    /**
+     *
+     */
+    @Test(expected=UnsupportedOperationException.class)
+    public void testSharedJSONObjectFrozen() throws Exception {
+        new SharedJSONObject().freeze().put("name", "value");
+    }
+}
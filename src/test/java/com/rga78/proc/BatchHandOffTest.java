@@ -0,0 +1,83 @@
+package com.rga78.proc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class BatchHandOffTest {
+
+    /**
+     * Offer 5 batches to a hand-off with room for 2, before the listener runs.
+     */
+    protected void offerAndRun(BatchHandOff handOff) throws Exception {
+        for (int i=0; i < 5; ++i) {
+            handOff.offer( Arrays.asList( "line" + i + "a", "line" + i + "b" ) );
+        }
+        handOff.close();
+        handOff.run();
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testDrop() throws Exception {
+
+        StreamCollector streamCollector = new StreamCollector();
+        BatchHandOff handOff = new BatchHandOff(streamCollector, 2, BatchHandOff.Policy.DROP);
+
+        offerAndRun(handOff);
+
+        assertEquals( Arrays.asList( "line0a", "line0b", "line1a", "line1b" ), streamCollector.getOutput() );
+        assertEquals( 3, handOff.getDroppedCount() );
+    }
+
+    /**
+     * Spilled batches are delivered in order.
+     */
+    @Test
+    public void testSpill() throws Exception {
+
+        StreamCollector streamCollector = new StreamCollector();
+        BatchHandOff handOff = new BatchHandOff(streamCollector, 2, BatchHandOff.Policy.SPILL);
+
+        offerAndRun(handOff);
+
+        assertEquals( 10, streamCollector.getOutput().size() );
+        assertEquals( "line4b", streamCollector.getOutput().get(9) );
+        assertEquals( 3, handOff.getSpilledCount() );
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testByteChunks() throws Exception {
+
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+
+        BatchHandOff handOff = new BatchHandOff(new ByteChunkListener() {
+            public void onBytes(byte[] chunk) {
+                chunks.add(chunk);
+            }
+            public void onEnd() {
+            }
+        }, 1, BatchHandOff.Policy.SPILL);
+
+        handOff.offer( "abc".getBytes() );
+        handOff.offer( "def".getBytes() );
+        handOff.close();
+        handOff.run();
+
+        assertEquals( 2, chunks.size() );
+        assertEquals( "def", new String( chunks.get(1) ) );
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.rga78.proc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class JsonObjectStreamReaderTest {
+
+    /**
+     * Objects split across chunks, with braces and escaped quotes in strings.
+     */
+    @Test
+    public void testFraming() throws Exception {
+
+        String json = "{\n  \"a\": \"x{y\",\n  \"b\": { \"c\": [1, 2] }\n}\n"
+                      + "junk outside of objects\n"
+                      + "{\"q\":\"say \\\"}\\\" \\\\\"}\n"
+                      + "{\"last\":true}";
+
+        byte[] bytes = json.getBytes("UTF-8");
+
+        JsonObjectStreamReader reader = new JsonObjectStreamReader();
+
+        // Feed it 3 bytes at a time.
+        for (int i=0; i < bytes.length; i += 3) {
+            reader.onBytes(bytes, i, Math.min(3, bytes.length - i));
+        }
+        reader.onEnd();
+
+        List<Map> objects = new ArrayList<Map>();
+        while (reader.hasNext()) {
+            objects.add( reader.next() );
+        }
+
+        assertEquals( 3, objects.size() );
+        assertEquals( "x{y", objects.get(0).get("a") );
+        assertEquals( 2, ((List) ((Map) objects.get(0).get("b")).get("c")).size() );
+        assertEquals( "say \"}\" \\", objects.get(1).get("q") );
+        assertEquals( Boolean.TRUE, objects.get(2).get("last") );
+        assertFalse( reader.hasNext() );
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.rga78.proc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class OutputCaptureTest {
+
+    /**
+     * 
+     */
+    @Test
+    public void testLastLines() {
+
+        OutputCapture capture = OutputCapture.lastLines(3);
+        for (int i=0; i < 5; ++i) {
+            capture.addLine("line" + i);
+        }
+
+        assertEquals( Arrays.asList( "line2", "line3", "line4" ), capture.getLines() );
+        assertEquals( 5, capture.getLineCount() );
+        assertEquals( 5 * 6, capture.getByteCount() );
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testLastBytes() {
+
+        OutputCapture capture = OutputCapture.lastBytes(20);
+        for (int i=0; i < 40; ++i) {
+            capture.addLine("line" + (i % 10));     // 6 bytes each, incl. newline
+        }
+
+        assertEquals( Arrays.asList( "line7", "line8", "line9" ), capture.getLines() );
+        assertEquals( 40, capture.getLineCount() );
+
+        // A line bigger than the budget empties the buffer.
+        capture.addLine("a line that is longer than 20 bytes");
+        assertTrue( capture.getLines().isEmpty() );
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testStatsOnly() {
+
+        OutputCapture capture = OutputCapture.statsOnly();
+        byte[] bytes = "a\nbb\nccc\n".getBytes();
+        capture.addBytes(bytes, 0, bytes.length);
+        capture.addLine("dddd");
+
+        assertTrue( capture.getLines().isEmpty() );
+        assertEquals( 4, capture.getLineCount() );
+        assertEquals( bytes.length + 5, capture.getByteCount() );
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.rga78.proc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.rga78.proc.ProcessHelper.Stream;
+
+/**
+ * 
+ */
+public class ProcessHelperTest {
+
+    /**
+     * @return a process that writes the given number of lines to stdout, and "done" to stderr.
+     */
+    protected Process startProcess(int lines) throws Exception {
+        return new ProcessBuilder( "sh", "-c", "i=0; while [ $i -lt " + lines + " ]; do echo \"line $i\"; i=$((i+1)); done; echo done >&2" ).start();
+    }
+
+    /**
+     * @return the expected stdout of startProcess
+     */
+    protected String expectedOutput(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i < lines; ++i) {
+            sb.append("line " + i + "\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Piped with no observers: raw bytes, no lines kept.
+     */
+    @Test
+    public void testPipeToOutputStream() throws Exception {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        ProcessHelper processHelper = new ProcessHelper( startProcess(2000) )
+                                            .pipeTo( Stream.STDOUT, bos )
+                                            .waitFor();
+
+        // getStdout waits for the reader to finish.
+        assertTrue( processHelper.getStdout().isEmpty() );
+        assertEquals( 2000, processHelper.getCapture(Stream.STDOUT).getLineCount() );
+        assertEquals( expectedOutput(2000).length(), processHelper.getCapture(Stream.STDOUT).getByteCount() );
+        assertEquals( 0, processHelper.exitValue() );
+        assertEquals( expectedOutput(2000), bos.toString() );
+        assertEquals( Arrays.asList( "done" ), processHelper.getStderr() );
+    }
+
+    /**
+     * 
+     */
+    @Test
+    public void testPipeToFile() throws Exception {
+
+        File file = new File("target/ProcessHelperTest.testPipeToFile.out");
+        FileUtils.deleteQuietly(file);
+
+        new ProcessHelper( startProcess(2000) )
+                .pipeTo( Stream.STDOUT, file )
+                .waitFor()
+                .getStdout();
+
+        assertEquals( expectedOutput(2000), FileUtils.readFileToString(file) );
+    }
+
+    /**
+     * A piped stderr still keeps its lines by default, for error reporting.
+     */
+    @Test
+    public void testPipeToStderrKeepsLines() throws Exception {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        ProcessHelper processHelper = new ProcessHelper( startProcess(10) )
+                                            .pipeTo( Stream.STDERR, bos )
+                                            .waitFor();
+
+        assertEquals( Arrays.asList( "done" ), processHelper.getStderr() );
+        assertEquals( "done\n", bos.toString() );
+        assertEquals( 10, processHelper.getStdout().size() );
+    }
+
+    /**
+     * Not piped, not observed, not captured: the stream is drained as raw bytes.
+     */
+    @Test
+    public void testStatsOnlyCapture() throws Exception {
+
+        ProcessHelper processHelper = new ProcessHelper( startProcess(500) )
+                                            .setCapture( Stream.STDOUT, OutputCapture.statsOnly() )
+                                            .setCapture( Stream.STDERR, OutputCapture.lastLines(1) )
+                                            .waitFor();
+
+        assertTrue( processHelper.getStdout().isEmpty() );
+        assertEquals( 500, processHelper.getCapture(Stream.STDOUT).getLineCount() );
+        assertEquals( Arrays.asList( "done" ), processHelper.getStderr() );
+    }
+
+    /**
+     * Piped with an observer: the pipe gets the lines too.
+     */
+    @Test
+    public void testPipeToWithObserver() throws Exception {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        StreamCollector streamCollector = new StreamCollector();
+
+        ProcessHelper processHelper = new ProcessHelper( startProcess(10) )
+                                            .pipeTo( Stream.STDOUT, bos )
+                                            .addObserver( Stream.STDOUT, streamCollector )
+                                            .waitFor();
+
+        assertEquals( 10, processHelper.getStdout().size() );
+        assertEquals( 10, streamCollector.getOutput().size() );
+        assertEquals( expectedOutput(10).replace("\n", System.getProperty("line.separator")), bos.toString() );
+    }
+
+    /**
+     * The readers run on the injected executor, which is left running.
+     */
+    @Test
+    public void testInjectedExecutorService() throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            ProcessHelper processHelper = new ProcessHelper( startProcess(10), executorService ).waitFor();
+
+            assertSame( executorService, processHelper.getExecutorService() );
+            assertEquals( 10, processHelper.getStdout().size() );
+            assertFalse( executorService.isShutdown() );
+
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * The shared executor's threads never keep the JVM alive.
+     */
+    @Test
+    public void testSharedExecutorService() throws Exception {
+
+        assertSame( ProcessHelper.getSharedExecutorService(), new ProcessHelper( startProcess(1) ).waitFor().getExecutorService() );
+
+        Future<Boolean> isDaemon = ProcessHelper.getSharedExecutorService().submit( new Callable<Boolean>() {
+            public Boolean call() {
+                return Thread.currentThread().isDaemon();
+            }
+        });
+
+        assertTrue( isDaemon.get() );
+    }
+
+    /**
+     * A slow listener gets every line, in order, in batches.
+     */
+    @Test
+    public void testLineBatchListener() throws Exception {
+
+        final List<String> lines = new ArrayList<String>();
+        final int[] batchCount = new int[1];
+
+        LineBatchListener slowListener = new LineBatchListener() {
+            public void onLines(List<String> batch) {
+                lines.addAll(batch);
+                ++batchCount[0];
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ie) {
+                }
+            }
+            public void onEnd() {
+            }
+        };
+
+        ProcessHelper processHelper = new ProcessHelper( startProcess(2000) )
+                                            .addListener( Stream.STDOUT, slowListener, BatchHandOff.Policy.BLOCK, 2 )
+                                            .setCapture( Stream.STDOUT, OutputCapture.none() )
+                                            .waitFor();
+
+        assertEquals( 0, processHelper.exitValue() );
+        assertEquals( 2000, lines.size() );
+        assertEquals( "line 1999", lines.get(1999) );
+        assertTrue( batchCount[0] < 2000 );
+    }
+
+    /**
+     * Listeners on both streams don't need threads from the injected executor: a pool 
+     * with just enough threads for the two readers doesn't deadlock.
+     */
+    @Test(timeout = 30000)
+    public void testListenersWithBoundedExecutorService() throws Exception {
+
+        final List<String> stdoutLines = new ArrayList<String>();
+        final List<String> stderrLines = new ArrayList<String>();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            ProcessHelper processHelper = new ProcessHelper( startProcess(2000), executorService )
+                                                .addListener( Stream.STDOUT, new LineBatchListener() {
+                                                    public void onLines(List<String> batch) {
+                                                        stdoutLines.addAll(batch);
+                                                    }
+                                                    public void onEnd() {
+                                                    }
+                                                }, BatchHandOff.Policy.BLOCK, 2 )
+                                                .addListener( Stream.STDERR, new LineBatchListener() {
+                                                    public void onLines(List<String> batch) {
+                                                        stderrLines.addAll(batch);
+                                                    }
+                                                    public void onEnd() {
+                                                    }
+                                                }, BatchHandOff.Policy.BLOCK, 2 )
+                                                .waitFor();
+
+            assertEquals( 0, processHelper.exitValue() );
+            assertEquals( 2000, stdoutLines.size() );
+            assertEquals( Arrays.asList("done"), stderrLines );
+
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * deleteWhenDone files are deleted by waitFor, or else once the process ends.
+     */
+    @Test
+    public void testDeleteWhenDone() throws Exception {
+
+        File file1 = File.createTempFile("ProcessHelperTest-", ".tmp");
+        new ProcessHelper( startProcess(1) ).deleteWhenDone(file1).waitFor();
+        assertFalse( file1.exists() );
+
+        File file2 = File.createTempFile("ProcessHelperTest-", ".tmp");
+        ProcessHelper processHelper = new ProcessHelper( startProcess(1) ).deleteWhenDone(file2).spawnStreamReaders();
+        processHelper.getProcess().waitFor();
+
+        // Deleted by the watcher task; nobody calls processHelper.waitFor.
+        for (int i=0; i < 100 && file2.exists(); ++i) {
+            Thread.sleep(50);
+        }
+        assertFalse( file2.exists() );
+    }
+
+    /**
+     * In raw mode, ByteChunkListeners get the bytes as is.
+     */
+    @Test
+    public void testByteChunkListener() throws Exception {
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        new ProcessHelper( startProcess(2000) )
+                .addListener( Stream.STDOUT, new ByteChunkListener() {
+                    public void onBytes(byte[] chunk) {
+                        bos.write(chunk, 0, chunk.length);
+                    }
+                    public void onEnd() {
+                    }
+                })
+                .setCapture( Stream.STDOUT, OutputCapture.statsOnly() )
+                .waitFor();
+
+        assertEquals( expectedOutput(2000), bos.toString() );
+    }
+
+}